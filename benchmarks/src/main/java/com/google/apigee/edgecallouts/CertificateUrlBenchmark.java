@@ -0,0 +1,43 @@
+package com.google.apigee.edgecallouts;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link CertificateUrlPolicy#verify} with the Alexa policy and the cache key derived from it,
+ * for a canonical URL and for a spelling that needs normalizing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateUrlBenchmark {
+
+    @Param({
+            "https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+            "HTTPS://S3.amazonaws.com:443/echo.api/../echo.api/echo-api-cert.pem"
+    })
+    public String signingCertificateChainUrl;
+
+    @Benchmark
+    public Object verifyUrl() throws Exception {
+        return CertificateUrlPolicy.ALEXA.verify(signingCertificateChainUrl);
+    }
+
+    @Benchmark
+    public String cacheKey() throws Exception {
+        return CertificateUrlPolicy.ALEXA.cacheKey(signingCertificateChainUrl);
+    }
+}
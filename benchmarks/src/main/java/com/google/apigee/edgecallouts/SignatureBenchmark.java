@@ -0,0 +1,65 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.ByteArrayInputStream;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SHA256withRSA verification of a request body across payload sizes: the thread-confined
+ * {@link SignatureVerifier} (array and streamed input) against a fresh {@link Signature} per call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+
+    @Param({"256", "4096", "65536"})
+    public int payloadSize;
+
+    private PublicKey publicKey;
+    private byte[] body;
+    private byte[] signature;
+
+    @Setup(Level.Trial)
+    public void sign() throws Exception {
+        TestCertificates certificates = TestCertificates.generate();
+        publicKey = certificates.signingCertificate().getPublicKey();
+        body = SkillRequests.body(payloadSize, SkillRequests.timestamp(System.currentTimeMillis()));
+        signature = certificates.sign(body);
+    }
+
+    @Benchmark
+    public boolean reusedVerifier() throws Exception {
+        return SignatureVerifier.verify(publicKey, body, signature);
+    }
+
+    @Benchmark
+    public boolean reusedVerifierStreamed() throws Exception {
+        return SignatureVerifier.verify(publicKey, new ByteArrayInputStream(body), signature);
+    }
+
+    @Benchmark
+    public boolean freshSignature() throws Exception {
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(publicKey);
+        verifier.update(body);
+        return verifier.verify(signature);
+    }
+}
@@ -0,0 +1,41 @@
+package com.google.apigee.edgecallouts;
+
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apigee.edgecallouts.util.TimestampParser;
+
+/**
+ * Request timestamp parsing: {@link TimestampParser} against the per-request
+ * {@link SimpleDateFormat} it replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimestampBenchmark {
+
+    public String timestamp = "2022-08-05T18:38:06Z";
+
+    @Benchmark
+    public long timestampParser() throws Exception {
+        return TimestampParser.parseEpochMillis(timestamp);
+    }
+
+    @Benchmark
+    public long simpleDateFormat() throws Exception {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX").parse(timestamp).getTime();
+    }
+}
@@ -0,0 +1,94 @@
+package com.google.apigee.edgecallouts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.edgecallouts.util.PropertyTemplate;
+import com.google.apigee.edgecallouts.util.VarResolver;
+
+/**
+ * Callout property resolution: a literal value, a single {@code {variable}} reference and a
+ * template mixing literals and references, through {@link VarResolver} and through the
+ * {@link PropertyTemplate} the callout compiles at construction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VarResolverBenchmark {
+
+    private VarResolver resolver;
+    private MessageContext messageContext;
+    private PropertyTemplate literalTemplate;
+    private PropertyTemplate referenceTemplate;
+    private PropertyTemplate mixedTemplate;
+
+    @Setup
+    public void prepare() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("alexa.header", "alexa_signature_chain_url");
+        variables.put("env", "prod");
+        variables.put("skill", "weather");
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("literal", "alexa_signature_chain_url");
+        properties.put("reference", "{alexa.header}");
+        properties.put("template", "alexa-{env}-{skill}-result");
+
+        messageContext = FlowStubs.messageContext(variables);
+        resolver = new VarResolver(messageContext, properties);
+        literalTemplate = PropertyTemplate.compile(properties.get("literal"));
+        referenceTemplate = PropertyTemplate.compile(properties.get("reference"));
+        mixedTemplate = PropertyTemplate.compile(properties.get("template"));
+    }
+
+    @Benchmark
+    public String literalProperty() {
+        return resolver.getProp("literal");
+    }
+
+    @Benchmark
+    public String referenceProperty() {
+        return resolver.getProp("reference");
+    }
+
+    @Benchmark
+    public String templateProperty() {
+        return resolver.getProp("template");
+    }
+
+    @Benchmark
+    public String replaceAllRefs() {
+        return resolver.replaceAllRefs("alexa-{env}-{skill}-result");
+    }
+
+    @Benchmark
+    public String compiledLiteral() {
+        return literalTemplate.resolve(messageContext);
+    }
+
+    @Benchmark
+    public String compiledReference() {
+        return referenceTemplate.resolve(messageContext);
+    }
+
+    @Benchmark
+    public String compiledTemplate() {
+        return mixedTemplate.resolve(messageContext);
+    }
+}
@@ -0,0 +1,110 @@
+package com.google.apigee.edgecallouts;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.MessageContext;
+
+/**
+ * Full {@link AlexaVerifierCallout#execute} with the signing certificate already cached, i.e. the
+ * steady state cost per request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerifyBenchmark {
+
+    static final String SIGNING_CERT_CHAIN_URL = "https://s3.amazonaws.com/echo.api/echo-api-cert-benchmark.pem";
+
+    @Param({"1024", "16384"})
+    public int payloadSize;
+
+    // "body" scans request.timestamp out of the digest pass instead of reading a flow variable
+    @Param({"variable", "body"})
+    public String timestampSource;
+
+    private TestCertificates certificates;
+    private AlexaVerifierCallout callout;
+    private volatile byte[] body;
+    private volatile String signature;
+    private volatile String timestamp;
+
+    @Setup(Level.Trial)
+    public void warmCache() throws Exception {
+        certificates = TestCertificates.generate();
+        preload(SIGNING_CERT_CHAIN_URL, certificates.chain());
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("signature-cert-chain-url", "alexa_signature_chain_url");
+        properties.put("request-signature", "alexa_signature_256");
+        properties.put("message-variable-ref", "message");
+        properties.put("request-body-timestamp", "request_body_timestamp");
+        properties.put("request-signature-val-result", "alexa_vallidation_result");
+        properties.put("request-timestamp-source", timestampSource);
+        callout = new AlexaVerifierCallout(properties);
+    }
+
+    // the test CA is not in the JVM trust store, so the chain goes into the cache as is
+    static void preload(final String signingCertificateChainUrl, final X509Certificate[] chain)
+            throws CertificateException {
+        AlexaVerifierCallout.certificateCache().preload(
+                CertificateUrlPolicy.ALEXA.cacheKey(signingCertificateChainUrl),
+                new VerifiedCertificateChain(chain, CertificateChainVerifier.fingerprint(chain)));
+    }
+
+    // re-signed for every iteration so the timestamp stays inside the tolerance window
+    @Setup(Level.Iteration)
+    public void signRequest() throws Exception {
+        timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        body = SkillRequests.body(payloadSize, timestamp);
+        signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        Map<String, Object> variables;
+        MessageContext messageContext;
+
+        @Setup(Level.Iteration)
+        public void prepare(VerifyBenchmark benchmark) {
+            variables = new HashMap<>();
+            variables.put("message", FlowStubs.message(benchmark.body));
+            variables.put("alexa_signature_chain_url", SIGNING_CERT_CHAIN_URL);
+            variables.put("alexa_signature_256", benchmark.signature);
+            variables.put("request_body_timestamp", benchmark.timestamp);
+            messageContext = FlowStubs.messageContext(variables);
+        }
+    }
+
+    @Benchmark
+    public Object execute(Request request) {
+        ExecutionResult result = callout.execute(request.messageContext, null);
+        if (!Boolean.TRUE.equals(request.variables.get("alexa_vallidation_result"))) {
+            throw new IllegalStateException("Request did not verify: "
+                    + request.variables.get(AlexaVerifierCallout.CALLOUT_VAR_PREFIX + ".error") + " "
+                    + request.variables.get(AlexaVerifierCallout.CALLOUT_VAR_PREFIX + ".error.message"));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,195 @@
+package com.google.apigee.edgecallouts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * One captured skill request, as read by {@link BatchVerifier}: a flat JSON object such as
+ *
+ * <pre>
+ * {"id": "...", "signatureCertChainUrl": "https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+ *  "signature": "...", "body": "{\"version\":\"1.0\", ...}", "receivedAt": "2022-08-05T18:38:07Z"}
+ * </pre>
+ *
+ * The body is given either as a JSON string ({@code body}, signed as its UTF-8 encoding) or, to
+ * keep the exact captured bytes, Base64 encoded ({@code bodyBase64}). {@code receivedAt} is when
+ * the request was captured; the timestamp window is checked against it instead of the current
+ * time. {@code id} is optional. Unknown members are ignored.
+ */
+final class BatchRecord {
+
+    final String id;
+    final String signatureCertChainUrl;
+    final String signature;
+    final byte[] body;
+    final String receivedAt;
+
+    private BatchRecord(String id, String signatureCertChainUrl, String signature, byte[] body, String receivedAt) {
+        this.id = id;
+        this.signatureCertChainUrl = signatureCertChainUrl;
+        this.signature = signature;
+        this.body = body;
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * @param defaultId used when the record has no {@code id}, e.g. the line number or file name
+     * @throws IllegalArgumentException when the text is not a flat JSON object or has no body
+     */
+    static BatchRecord parse(final String json, final String defaultId) {
+        Parser parser = new Parser(json);
+        String id = defaultId;
+        String signatureCertChainUrl = null;
+        String signature = null;
+        byte[] body = null;
+        String receivedAt = null;
+
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String name = parser.string();
+                parser.expect(':');
+                String value = parser.value();
+                switch (name) {
+                    case "id":
+                        id = value != null ? value : defaultId;
+                        break;
+                    case "signatureCertChainUrl":
+                        signatureCertChainUrl = value;
+                        break;
+                    case "signature":
+                        signature = value;
+                        break;
+                    case "body":
+                        body = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+                        break;
+                    case "bodyBase64":
+                        body = value == null ? null : Base64.getDecoder().decode(value);
+                        break;
+                    case "receivedAt":
+                        receivedAt = value;
+                        break;
+                    default:
+                        break;
+                }
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.end();
+
+        if (body == null) {
+            throw new IllegalArgumentException("Record has no body");
+        }
+        return new BatchRecord(id, signatureCertChainUrl, signature, body, receivedAt);
+    }
+
+    /**
+     * Just enough JSON for flat objects whose members are strings, numbers, booleans or null.
+     */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void expect(final char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at offset " + pos);
+            }
+        }
+
+        boolean consume(final char c) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void end() {
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw new IllegalArgumentException("Unexpected content at offset " + pos);
+            }
+        }
+
+        /**
+         * A member value; numbers and booleans are returned as written, null as null.
+         */
+        String value() {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty() || literal.charAt(0) == '{' || literal.charAt(0) == '[') {
+                throw new IllegalArgumentException("Unsupported value at offset " + start);
+            }
+            return "null".equals(literal) ? null : literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("Truncated escape at offset " + pos);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid escape at offset " + pos, e);
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                        break;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.apigee.edgecallouts.util.TimestampParser;
+
+/**
+ * Verifies captured skill requests offline, for replaying and auditing recorded traffic with
+ * the same checks the callout applies. Records ({@link BatchRecord}) are read either one per
+ * line from a file or standard input, or one per file from a directory, and verified in
+ * parallel on a fork-join pool; all workers share the certificate cache of the
+ * {@link VerifierPolicy}, so every certificate URL is downloaded once per run.
+ *
+ * For every record one JSON line is written, in completion order:
+ * <pre>
+ * {"id":"17","verified":false,"error":"signature_mismatch","message":"...","micros":412}
+ * </pre>
+ * where {@code micros} is the time spent verifying the record. A summary goes to standard error.
+ * The exit status is 0 when every record verified, 1 when some did not and 2 on usage or I/O
+ * errors.
+ *
+ * Only the request timestamp is checked against a record's {@code receivedAt}; the signing
+ * certificate's validity is still checked against the current time. The {@code replay-protection}
+ * property is ignored, so repeated records are verified independently.
+ */
+public final class BatchVerifier {
+
+    static final String INVALID_RECORD = "invalid_record";
+
+    private static final int EXIT_ALL_VERIFIED = 0;
+    private static final int EXIT_REJECTED = 1;
+    private static final int EXIT_ERROR = 2;
+    // bounds the records held in memory while the reader is ahead of the workers
+    private static final int IN_FLIGHT_PER_THREAD = 64;
+
+    private static final String USAGE = "usage: BatchVerifier [--threads n] [--output file] "
+            + "[--property name=value]... <records.ndjson | directory | ->";
+
+    private final RequestVerifier requestVerifier;
+    private final int parallelism;
+
+    BatchVerifier(RequestVerifier requestVerifier, int parallelism) {
+        this.requestVerifier = requestVerifier;
+        this.parallelism = parallelism;
+    }
+
+    public static void main(String[] args) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        String input = null;
+        // policy properties of the callout, e.g. timestamp-tolerance-seconds or certificate-store-dir
+        Map<String, String> properties = new HashMap<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        parallelism = Integer.parseInt(args[++i]);
+                        if (parallelism <= 0) {
+                            throw new IllegalArgumentException("--threads must be positive");
+                        }
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    case "--property":
+                        String property = args[++i];
+                        int separator = property.indexOf('=');
+                        if (separator <= 0) {
+                            throw new IllegalArgumentException("--property expects name=value");
+                        }
+                        properties.put(property.substring(0, separator), property.substring(separator + 1));
+                        break;
+                    default:
+                        if (input != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        input = args[i];
+                        break;
+                }
+            }
+            if (input == null) {
+                throw new IllegalArgumentException("No input given");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage() == null ? USAGE : e.getMessage() + "\n" + USAGE);
+            System.exit(EXIT_ERROR);
+            return;
+        }
+
+        // a replay guard expects requests in arrival order, which parallel workers and per-record
+        // receivedAt times do not give it, so captured traffic is always verified without one
+        properties.remove(VerifierPolicy.REPLAY_PROTECTION);
+        int status;
+        try (VerifierPolicy policy = VerifierPolicy.unshared(properties, "https", true, null);
+             Writer writer = new BufferedWriter(output == null
+                     ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                     : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8))) {
+            BatchVerifier batchVerifier = new BatchVerifier(policy.requestVerifier(), parallelism);
+            Summary summary;
+            if ("-".equals(input)) {
+                summary = batchVerifier.verifyLines(new InputStreamReader(System.in, StandardCharsets.UTF_8), writer);
+            } else if (Files.isDirectory(Paths.get(input))) {
+                summary = batchVerifier.verifyDirectory(Paths.get(input), writer);
+            } else {
+                try (Reader reader = Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8)) {
+                    summary = batchVerifier.verifyLines(reader, writer);
+                }
+            }
+            writer.flush();
+            System.err.println(summary);
+            status = summary.allVerified() ? EXIT_ALL_VERIFIED : EXIT_REJECTED;
+        } catch (IOException e) {
+            System.err.println("Batch verification failed: " + e);
+            status = EXIT_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = EXIT_ERROR;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Verifies one record per non-blank line.
+     */
+    Summary verifyLines(final Reader input, final Writer output) throws IOException, InterruptedException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        try (Run run = new Run(output)) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final String record = line;
+                run.submit(String.valueOf(lineNumber), () -> record);
+            }
+            return run.finish();
+        }
+    }
+
+    /**
+     * Verifies one record per regular file in the directory; hidden files are skipped. The files
+     * are read on the workers.
+     */
+    Summary verifyDirectory(final Path directory, final Writer output) throws IOException, InterruptedException {
+        try (Run run = new Run(output);
+             DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".") || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                run.submit(name, () -> new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+            return run.finish();
+        }
+    }
+
+    private interface RecordSource {
+        String read() throws IOException;
+    }
+
+    /**
+     * One pass over the input: the pool, the bound on records in flight, and the output.
+     */
+    private final class Run implements AutoCloseable {
+        private final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        private final int maxInFlight = parallelism * IN_FLIGHT_PER_THREAD;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        private final Writer output;
+        private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        private final Summary summary = new Summary();
+        private final long start = System.nanoTime();
+
+        Run(Writer output) {
+            this.output = output;
+        }
+
+        void submit(final String defaultId, final RecordSource source) throws IOException, InterruptedException {
+            IOException failure = writeFailure.get();
+            if (failure != null) {
+                throw failure;
+            }
+            inFlight.acquire();
+            try {
+                pool.execute(() -> {
+                    try {
+                        write(verifyRecord(defaultId, source, summary));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        Summary finish() throws IOException, InterruptedException {
+            inFlight.acquire(maxInFlight);
+            IOException failure = writeFailure.get();
+            if (failure != null) {
+                throw failure;
+            }
+            summary.elapsedNanos = System.nanoTime() - start;
+            return summary;
+        }
+
+        private void write(final String result) {
+            synchronized (output) {
+                try {
+                    output.write(result);
+                    output.write('\n');
+                } catch (IOException e) {
+                    writeFailure.compareAndSet(null, e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            pool.shutdownNow();
+        }
+    }
+
+    private String verifyRecord(final String defaultId, final RecordSource source, final Summary summary) {
+        String id = defaultId;
+        String error = null;
+        String message = null;
+        long nanos = 0L;
+        try {
+            BatchRecord record = BatchRecord.parse(source.read(), defaultId);
+            id = record.id;
+            // captured traffic is checked against the time it was received, not against today
+            long now = record.receivedAt == null
+                    ? System.currentTimeMillis()
+                    : TimestampParser.parseEpochMillis(record.receivedAt);
+            long start = System.nanoTime();
+            try {
+                requestVerifier.verifyWithBodyTimestamp(record.signature, record.signatureCertChainUrl,
+                        content(record.body), now);
+            } finally {
+                nanos = System.nanoTime() - start;
+            }
+            summary.verified.incrementAndGet();
+        } catch (VerificationException e) {
+            error = e.getReason().code();
+            message = e.getMessage();
+            summary.rejected.incrementAndGet(e.getReason().ordinal());
+        } catch (IOException | ParseException | IllegalArgumentException e) {
+            error = INVALID_RECORD;
+            message = e.getMessage();
+            summary.invalid.incrementAndGet();
+        } catch (Error | RuntimeException e) {
+            error = FailureReason.INTERNAL_ERROR.code();
+            message = e.toString();
+            summary.rejected.incrementAndGet(FailureReason.INTERNAL_ERROR.ordinal());
+        }
+
+        StringBuilder result = new StringBuilder(96);
+        result.append("{\"id\":");
+        appendJsonString(result, id);
+        result.append(",\"verified\":").append(error == null);
+        if (error != null) {
+            result.append(",\"error\":\"").append(error).append("\",\"message\":");
+            appendJsonString(result, message);
+        }
+        result.append(",\"micros\":").append(TimeUnit.NANOSECONDS.toMicros(nanos)).append('}');
+        return result.toString();
+    }
+
+    private static RequestVerifier.SignedContent content(final byte[] body) {
+        return (publicKey, signature, timestampScanner) -> {
+            if (timestampScanner != null) {
+                timestampScanner.update(body, 0, body.length);
+            }
+            return SignatureVerifier.verify(publicKey, body, signature);
+        };
+    }
+
+    static void appendJsonString(final StringBuilder out, final String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Outcome counts of a run.
+     */
+    static final class Summary {
+        private final AtomicLong verified = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLongArray rejected = new AtomicLongArray(FailureReason.values().length);
+        private volatile long elapsedNanos;
+
+        long verifiedCount() {
+            return verified.get();
+        }
+
+        long invalidCount() {
+            return invalid.get();
+        }
+
+        long rejectedCount(final FailureReason reason) {
+            return rejected.get(reason.ordinal());
+        }
+
+        long recordCount() {
+            long count = verified.get() + invalid.get();
+            for (int i = 0; i < rejected.length(); i++) {
+                count += rejected.get(i);
+            }
+            return count;
+        }
+
+        boolean allVerified() {
+            return verified.get() == recordCount();
+        }
+
+        @Override
+        public String toString() {
+            long records = recordCount();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            StringBuilder out = new StringBuilder();
+            out.append(records).append(" records in ").append(elapsedMs).append(" ms");
+            if (elapsedMs > 0) {
+                out.append(" (").append(records * 1000L / elapsedMs).append("/s)");
+            }
+            out.append(": verified=").append(verified.get());
+            for (FailureReason reason : FailureReason.values()) {
+                long count = rejected.get(reason.ordinal());
+                if (count > 0) {
+                    out.append(", ").append(reason.code()).append('=').append(count);
+                }
+            }
+            if (invalid.get() > 0) {
+                out.append(", ").append(INVALID_RECORD).append('=').append(invalid.get());
+            }
+            return out.toString();
+        }
+    }
+}
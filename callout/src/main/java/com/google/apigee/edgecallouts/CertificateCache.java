@@ -0,0 +1,356 @@
+package com.google.apigee.edgecallouts;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signing certificate cache shared by all callout instances.
+ *
+ * Concurrent misses for the same URL are merged into a single in-flight fetch that runs on the
+ * supplied executor, so the request threads only ever wait (for a bounded time) on a shared
+ * future instead of downloading and retrying on their own. Failed fetches are remembered for a
+ * short time so that a dead URL is not hammered by every request that references it.
+ *
+ * Cached certificates are re-downloaded in the background once they get close to their
+ * {@code notAfter} date or once they have been cached for longer than the refresh TTL, whichever
+ * comes first. The refreshed entry replaces the old one atomically, so requests for a known URL
+ * keep being served from memory while the refresh is in progress. The periodic scan for due
+ * entries runs on the shared executor until the cache is {@linkplain #close() closed}.
+ *
+ * Keys are canonical URLs (see {@link CertificateUrlPolicy#canonical}), and the cache is bounded
+ * both by entry count and by the total encoded size of the cached certificates. When either
+ * bound is exceeded the least recently used entry is evicted; lookups stay lock-free and only
+ * inserts take the eviction lock.
+ *
+ * URLs that are known up front can be warmed up in the background ({@link #warmUp}), and
+ * {@link #isWarm()} tells whether all of them are currently cached.
+ */
+final class CertificateCache implements AutoCloseable {
+
+    interface Loader {
+        /**
+         * @param previous the chain currently cached for the URL, if any, to revalidate against
+         */
+        VerifiedCertificateChain load(String signingCertificateChainUrl, VerifiedCertificateChain previous)
+                throws CertificateException;
+    }
+
+    private static final int MAX_REMEMBERED_FAILURES = 256;
+
+    private final Map<String, Entry> certificates = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<VerifiedCertificateChain>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, FailedFetch> failures = new ConcurrentHashMap<>();
+    private final Set<String> warmUpUrls = ConcurrentHashMap.newKeySet();
+    private final Object evictionLock = new Object();
+    private long totalEncodedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Loader loader;
+    private final ScheduledExecutorService executor;
+    private final long fetchWaitTimeoutMs;
+    private final long failureTtlMs;
+    private final long refreshAheadMs;
+    private final long refreshTtlMs;
+    private final long refreshIntervalMs;
+    private final int maxEntries;
+    private final long maxEncodedBytes;
+    private final ScheduledFuture<?> refreshTask;
+
+    CertificateCache(Loader loader, ScheduledExecutorService executor, long fetchWaitTimeoutMs, long failureTtlMs,
+                     long refreshAheadMs, long refreshTtlMs, long refreshIntervalMs,
+                     int maxEntries, long maxEncodedBytes) {
+        this.loader = loader;
+        this.executor = executor;
+        this.fetchWaitTimeoutMs = fetchWaitTimeoutMs;
+        this.failureTtlMs = failureTtlMs;
+        this.refreshAheadMs = refreshAheadMs;
+        this.refreshTtlMs = refreshTtlMs;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.maxEntries = maxEntries;
+        this.maxEncodedBytes = maxEncodedBytes;
+        this.refreshTask = executor.scheduleWithFixedDelay(this::refreshDueEntries, refreshIntervalMs, refreshIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a valid certificate for the URL, joining (or starting) the in-flight fetch when the
+     * cache has nothing usable.
+     */
+    X509Certificate get(final String signingCertificateChainUrl) throws CertificateException {
+        long now = System.currentTimeMillis();
+        Entry entry = certificates.get(signingCertificateChainUrl);
+        if (entry != null && entry.certificate.getNotAfter().getTime() > now) {
+            /*
+             * check the before/after dates on the certificate are still valid for the present
+             * time
+             */
+            entry.certificate.checkValidity();
+            entry.lastAccess = now;
+            hits.increment();
+            if (entry.isRefreshDue(now)) {
+                refresh(signingCertificateChainUrl);
+            }
+            return entry.certificate;
+        }
+        misses.increment();
+
+        FailedFetch failure = failures.get(signingCertificateChainUrl);
+        if (failure != null) {
+            if (!failure.isExpired(now)) {
+                throw new CertificateException("Certificate retrieval recently failed for URL: "
+                        + signingCertificateChainUrl, failure.cause);
+            }
+            failures.remove(signingCertificateChainUrl, failure);
+        }
+
+        return await(signingCertificateChainUrl, fetch(signingCertificateChainUrl)).signingCertificate();
+    }
+
+    /**
+     * Starts a background fetch for the URL unless one is already running. Never blocks.
+     */
+    void refresh(final String signingCertificateChainUrl) {
+        if (inFlight.containsKey(signingCertificateChainUrl)) {
+            return;
+        }
+        // back off after a failed refresh, the current entry stays in use meanwhile
+        FailedFetch failure = failures.get(signingCertificateChainUrl);
+        if (failure != null && !failure.isExpired(System.currentTimeMillis())) {
+            return;
+        }
+        fetch(signingCertificateChainUrl);
+    }
+
+    /**
+     * Makes the URL part of what {@link #isWarm()} checks and loads it in the background: from
+     * the bundled chain when one is given and it loads, otherwise with a regular fetch. A URL that
+     * is already cached is left alone. Never blocks.
+     *
+     * @param bundled supplies a verified chain shipped with the callout, or null
+     */
+    void warmUp(final String signingCertificateChainUrl, final Callable<VerifiedCertificateChain> bundled) {
+        warmUpUrls.add(signingCertificateChainUrl);
+        if (certificates.containsKey(signingCertificateChainUrl)) {
+            return;
+        }
+        executor.execute(() -> {
+            if (bundled != null && !certificates.containsKey(signingCertificateChainUrl)) {
+                try {
+                    preload(signingCertificateChainUrl, bundled.call());
+                } catch (Exception e) {
+                    //IGNORED, the chain is downloaded instead
+                }
+            }
+            if (!certificates.containsKey(signingCertificateChainUrl)) {
+                refresh(signingCertificateChainUrl);
+            }
+        });
+    }
+
+    /**
+     * True when every URL passed to {@link #warmUp} has a valid cached certificate.
+     */
+    boolean isWarm() {
+        long now = System.currentTimeMillis();
+        for (String signingCertificateChainUrl : warmUpUrls) {
+            Entry entry = certificates.get(signingCertificateChainUrl);
+            if (entry == null || entry.certificate.getNotAfter().getTime() <= now) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the background refresh, so that the executor no longer holds on to this cache. Lookups
+     * keep working, but cached certificates are only downloaded again once they expire.
+     */
+    @Override
+    public void close() {
+        refreshTask.cancel(false);
+    }
+
+    private void refreshDueEntries() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> cached : certificates.entrySet()) {
+            if (cached.getValue().isRefreshDue(now)) {
+                refresh(cached.getKey());
+            }
+        }
+    }
+
+    private CompletableFuture<VerifiedCertificateChain> fetch(final String signingCertificateChainUrl) {
+        CompletableFuture<VerifiedCertificateChain> created = new CompletableFuture<>();
+        CompletableFuture<VerifiedCertificateChain> existing = inFlight.putIfAbsent(signingCertificateChainUrl, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> load(signingCertificateChainUrl, created));
+        } catch (RuntimeException e) {
+            inFlight.remove(signingCertificateChainUrl, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void load(final String signingCertificateChainUrl, final CompletableFuture<VerifiedCertificateChain> future) {
+        try {
+            Entry previous = certificates.get(signingCertificateChainUrl);
+            VerifiedCertificateChain certificateChain = loader.load(signingCertificateChainUrl,
+                    previous == null ? null : previous.certificateChain);
+            // publish before releasing the in-flight slot so late arrivals hit the cache
+            put(signingCertificateChainUrl, newEntry(certificateChain));
+            future.complete(certificateChain);
+        } catch (Throwable t) {
+            rememberFailure(signingCertificateChainUrl, t);
+            future.completeExceptionally(t);
+        } finally {
+            inFlight.remove(signingCertificateChainUrl, future);
+        }
+    }
+
+    /**
+     * Adds a chain that was verified outside of a fetch, e.g. one restored from disk.
+     */
+    void preload(final String signingCertificateChainUrl, final VerifiedCertificateChain certificateChain)
+            throws CertificateEncodingException {
+        put(signingCertificateChainUrl, newEntry(certificateChain));
+    }
+
+    private void put(final String signingCertificateChainUrl, final Entry entry) {
+        synchronized (evictionLock) {
+            Entry previous = certificates.put(signingCertificateChainUrl, entry);
+            totalEncodedBytes += entry.encodedBytes - (previous == null ? 0 : previous.encodedBytes);
+            while (certificates.size() > maxEntries || totalEncodedBytes > maxEncodedBytes) {
+                Map.Entry<String, Entry> eldest = null;
+                for (Map.Entry<String, Entry> cached : certificates.entrySet()) {
+                    if (eldest == null || cached.getValue().lastAccess < eldest.getValue().lastAccess) {
+                        eldest = cached;
+                    }
+                }
+                if (eldest == null || !certificates.remove(eldest.getKey(), eldest.getValue())) {
+                    break;
+                }
+                totalEncodedBytes -= eldest.getValue().encodedBytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    int size() {
+        return certificates.size();
+    }
+
+    private VerifiedCertificateChain await(final String signingCertificateChainUrl,
+                                  final CompletableFuture<VerifiedCertificateChain> future) throws CertificateException {
+        try {
+            return future.get(fetchWaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new CertificateException("Timed out waiting for certificate retrieval from URL: "
+                    + signingCertificateChainUrl, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertificateException("Interrupted while waiting for certificate retrieval from URL: "
+                    + signingCertificateChainUrl, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CertificateException) {
+                throw (CertificateException) cause;
+            }
+            throw new CertificateException("Unable to retrieve certificate from URL: "
+                    + signingCertificateChainUrl, cause);
+        }
+    }
+
+    private void rememberFailure(final String signingCertificateChainUrl, final Throwable cause) {
+        long now = System.currentTimeMillis();
+        if (failures.size() >= MAX_REMEMBERED_FAILURES) {
+            for (Iterator<FailedFetch> it = failures.values().iterator(); it.hasNext(); ) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                }
+            }
+            if (failures.size() >= MAX_REMEMBERED_FAILURES) {
+                return;
+            }
+        }
+        failures.put(signingCertificateChainUrl, new FailedFetch(cause, now + failureTtlMs));
+    }
+
+    private Entry newEntry(final VerifiedCertificateChain certificateChain) throws CertificateEncodingException {
+        X509Certificate signingCertificate = certificateChain.signingCertificate();
+        int encodedBytes = 0;
+        for (X509Certificate certificate : certificateChain.certificates()) {
+            encodedBytes += certificate.getEncoded().length;
+        }
+        long loadedAt = System.currentTimeMillis();
+        long refreshAt = Math.min(loadedAt + refreshTtlMs,
+                signingCertificate.getNotAfter().getTime() - refreshAheadMs);
+        // a certificate fetched inside its refresh-ahead window is not refreshed on every scan
+        return new Entry(certificateChain, Math.max(refreshAt, loadedAt + refreshIntervalMs),
+                encodedBytes, loadedAt);
+    }
+
+    private static final class Entry {
+        private final VerifiedCertificateChain certificateChain;
+        private final X509Certificate certificate;
+        private final long refreshAt;
+        private final int encodedBytes;
+        private volatile long lastAccess;
+
+        Entry(VerifiedCertificateChain certificateChain, long refreshAt, int encodedBytes, long lastAccess) {
+            this.certificateChain = certificateChain;
+            this.certificate = certificateChain.signingCertificate();
+            this.refreshAt = refreshAt;
+            this.encodedBytes = encodedBytes;
+            this.lastAccess = lastAccess;
+        }
+
+        boolean isRefreshDue(long now) {
+            return now >= refreshAt;
+        }
+    }
+
+    private static final class FailedFetch {
+        private final Throwable cause;
+        private final long expiresAt;
+
+        FailedFetch(Throwable cause, long expiresAt) {
+            this.cause = cause;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
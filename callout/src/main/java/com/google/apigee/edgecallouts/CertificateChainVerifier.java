@@ -0,0 +1,165 @@
+package com.google.apigee.edgecallouts;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Validates downloaded signing certificate chains against a trust manager and the required
+ * subject alternative name.
+ *
+ * The JVM default trust manager is built once, on first use, and shared. Chains that already
+ * passed PKIX validation are remembered by their SHA-256 fingerprint, so downloading identical
+ * bytes again only re-checks the validity dates of the certificates in the chain.
+ */
+final class CertificateChainVerifier {
+
+    private static final Integer DOMAIN_NAME_SUBJECT_ALTERNATIVE_NAME_ENTRY = 2;
+    private static final int MAX_VERIFIED_CHAINS = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static volatile X509TrustManager defaultTrustManager;
+
+    private final X509TrustManager trustManager;
+    private final String requiredSubjectAlternativeName;
+    private final Map<String, VerifiedCertificateChain> verifiedChains = new ConcurrentHashMap<>();
+
+    /**
+     * @param trustManager the trust manager to validate chains with, or null for the JVM default
+     */
+    CertificateChainVerifier(X509TrustManager trustManager, String requiredSubjectAlternativeName) {
+        this.trustManager = trustManager;
+        this.requiredSubjectAlternativeName = requiredSubjectAlternativeName;
+    }
+
+    /**
+     * Returns the verified chain when it is valid today, trusted, and its signing certificate (the
+     * first one in the chain) is issued for the required domain name.
+     */
+    VerifiedCertificateChain verify(final X509Certificate[] certificateChain) throws CertificateException {
+        if (certificateChain.length == 0) {
+            throw new CertificateException("The certificate chain is empty");
+        }
+
+        String fingerprint = fingerprint(certificateChain);
+        VerifiedCertificateChain verified = verifiedChains.get(fingerprint);
+        if (verified != null) {
+            // same bytes as a chain that was already validated, only the dates can have changed
+            for (X509Certificate certificate : certificateChain) {
+                certificate.checkValidity();
+            }
+            return verified;
+        }
+
+        /*
+         * check the before/after dates on the certificate date to confirm that it is valid on
+         * the current date
+         */
+        X509Certificate signingCertificate = certificateChain[0];
+        signingCertificate.checkValidity();
+
+        // check the certificate chain
+        trustManager().checkServerTrusted(certificateChain, "RSA");
+
+        /*
+         * verify Echo API's hostname is specified as one of subject alternative names on the
+         * signing certificate
+         */
+        if (!subjectAlternativeNameListContainsDomainName(signingCertificate.getSubjectAlternativeNames())) {
+            throw new CertificateException(
+                    "The provided certificate is not valid for the ASK SDK");
+        }
+
+        if (verifiedChains.size() >= MAX_VERIFIED_CHAINS) {
+            verifiedChains.clear();
+        }
+        verified = new VerifiedCertificateChain(certificateChain.clone(), fingerprint);
+        verifiedChains.put(fingerprint, verified);
+        return verified;
+    }
+
+    private X509TrustManager trustManager() throws CertificateException {
+        return trustManager != null ? trustManager : defaultTrustManager();
+    }
+
+    private boolean subjectAlternativeNameListContainsDomainName(
+            final Collection<List<?>> subjectAlternativeNameEntries) {
+        if (subjectAlternativeNameEntries == null) {
+            return false;
+        }
+        for (List<?> entry : subjectAlternativeNameEntries) {
+            // first ensure that the subject alternative entry is in the expected form
+            if (entry.get(0) instanceof Integer && entry.get(1) instanceof String) {
+                /*
+                 * if the entry is for a domain name and that domain name matches the domain name
+                 * for the echo sdk then return true
+                 */
+                if (DOMAIN_NAME_SUBJECT_ALTERNATIVE_NAME_ENTRY.equals(entry.get(0))
+                        && requiredSubjectAlternativeName.equals((entry.get(1)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static String fingerprint(final X509Certificate[] certificateChain) throws CertificateException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate certificate : certificateChain) {
+                digest.update(certificate.getEncoded());
+            }
+            byte[] hash = digest.digest();
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("Unable to fingerprint the certificate chain", e);
+        }
+    }
+
+    static X509TrustManager defaultTrustManager() throws CertificateException {
+        X509TrustManager result = defaultTrustManager;
+        if (result == null) {
+            synchronized (CertificateChainVerifier.class) {
+                result = defaultTrustManager;
+                if (result == null) {
+                    result = loadDefaultTrustManager();
+                    defaultTrustManager = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static X509TrustManager loadDefaultTrustManager() throws CertificateException {
+        try {
+            TrustManagerFactory trustManagerFactory =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init((KeyStore) null);
+
+            for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) {
+                    return (X509TrustManager) trustManager;
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("Unable to load the default trust store", e);
+        }
+        throw new IllegalStateException(
+                "No X509 TrustManager available. Unable to check certificate chain");
+    }
+}
@@ -0,0 +1,169 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * File-backed copy of the verified signing certificate chains, used to warm the in-memory cache
+ * after a restart.
+ *
+ * Every chain is stored as two files named after the URL: a {@code .pem} file with the chain and
+ * a {@code .properties} file with the URL, the chain fingerprint, the signing certificate's
+ * {@code notAfter} date and the {@code ETag}/{@code Last-Modified} validators the chain was
+ * downloaded with, so that the first refresh after a restart can still be a conditional request.
+ * Both are written to a temporary file first and moved into place, the
+ * metadata last, so a reader never sees a half written entry. Restored chains must still be
+ * verified again by the caller before they are trusted.
+ */
+final class CertificateDiskStore {
+
+    private static final String PEM_SUFFIX = ".pem";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String URL_KEY = "url";
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    private static final String NOT_AFTER_KEY = "notAfter";
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+
+    private final Path directory;
+
+    CertificateDiskStore(Path directory) {
+        this.directory = directory;
+    }
+
+    void save(final String signingCertificateChainUrl, final VerifiedCertificateChain certificateChain)
+            throws IOException, CertificateException {
+        Files.createDirectories(directory);
+        String name = fileName(signingCertificateChainUrl);
+
+        Path pem = Files.createTempFile(directory, name, PEM_SUFFIX + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(pem, StandardCharsets.US_ASCII)) {
+            Base64.Encoder encoder = Base64.getMimeEncoder(64, new byte[]{'\n'});
+            for (X509Certificate certificate : certificateChain.certificates()) {
+                writer.write("-----BEGIN CERTIFICATE-----\n");
+                writer.write(encoder.encodeToString(certificate.getEncoded()));
+                writer.write("\n-----END CERTIFICATE-----\n");
+            }
+        }
+        moveIntoPlace(pem, directory.resolve(name + PEM_SUFFIX));
+
+        Properties metadata = new Properties();
+        metadata.setProperty(URL_KEY, signingCertificateChainUrl);
+        metadata.setProperty(FINGERPRINT_KEY, certificateChain.fingerprint());
+        metadata.setProperty(NOT_AFTER_KEY,
+                Long.toString(certificateChain.signingCertificate().getNotAfter().getTime()));
+        if (certificateChain.etag() != null) {
+            metadata.setProperty(ETAG_KEY, certificateChain.etag());
+        }
+        if (certificateChain.lastModified() != null) {
+            metadata.setProperty(LAST_MODIFIED_KEY, certificateChain.lastModified());
+        }
+        Path properties = Files.createTempFile(directory, name, METADATA_SUFFIX + ".tmp");
+        try (OutputStream out = Files.newOutputStream(properties)) {
+            metadata.store(out, null);
+        }
+        moveIntoPlace(properties, directory.resolve(name + METADATA_SUFFIX));
+    }
+
+    /**
+     * Returns the stored chains by URL. Entries that expired, are incomplete, or whose PEM does not
+     * match the recorded fingerprint are skipped; expired ones are deleted.
+     */
+    Map<String, StoredChain> load() {
+        Map<String, StoredChain> chains = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return chains;
+        }
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + METADATA_SUFFIX)) {
+            for (Path properties : files) {
+                String fileName = properties.getFileName().toString();
+                Path pem = directory.resolve(
+                        fileName.substring(0, fileName.length() - METADATA_SUFFIX.length()) + PEM_SUFFIX);
+                try {
+                    Properties metadata = new Properties();
+                    try (InputStream in = Files.newInputStream(properties)) {
+                        metadata.load(in);
+                    }
+                    String url = metadata.getProperty(URL_KEY);
+                    String fingerprint = metadata.getProperty(FINGERPRINT_KEY);
+                    String notAfter = metadata.getProperty(NOT_AFTER_KEY);
+                    if (url == null || fingerprint == null || notAfter == null || !Files.exists(pem)) {
+                        continue;
+                    }
+                    if (Long.parseLong(notAfter) <= now) {
+                        Files.deleteIfExists(properties);
+                        Files.deleteIfExists(pem);
+                        continue;
+                    }
+
+                    X509Certificate[] chain = readChain(pem);
+                    if (fingerprint.equals(CertificateChainVerifier.fingerprint(chain))) {
+                        chains.put(url, new StoredChain(chain, metadata.getProperty(ETAG_KEY),
+                                metadata.getProperty(LAST_MODIFIED_KEY)));
+                    }
+                } catch (IOException | CertificateException | NumberFormatException e) {
+                    //IGNORED, a damaged entry is simply downloaded again
+                }
+            }
+        } catch (IOException e) {
+            //IGNORED, an unreadable store behaves like an empty one
+        }
+        return chains;
+    }
+
+    private static X509Certificate[] readChain(final Path pem) throws IOException, CertificateException {
+        try (InputStream in = Files.newInputStream(pem)) {
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            @SuppressWarnings("unchecked")
+            Collection<X509Certificate> certificateChain =
+                    (Collection<X509Certificate>) certificateFactory.generateCertificates(in);
+            return certificateChain.toArray(new X509Certificate[certificateChain.size()]);
+        }
+    }
+
+    private static void moveIntoPlace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(source);
+            throw e;
+        }
+    }
+
+    private static String fileName(final String signingCertificateChainUrl) {
+        return UUID.nameUUIDFromBytes(signingCertificateChainUrl.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * A chain read back from the store, with the validators it was downloaded with (null when the
+     * server sent none).
+     */
+    static final class StoredChain {
+        final X509Certificate[] certificates;
+        final String etag;
+        final String lastModified;
+
+        StoredChain(X509Certificate[] certificates, String etag, String lastModified) {
+            this.certificates = certificates;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
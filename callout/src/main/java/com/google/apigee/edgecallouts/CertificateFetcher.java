@@ -0,0 +1,125 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Downloads and verifies a signing certificate chain.
+ *
+ * Attempts are retried with exponential backoff and jitter, and all attempts together (including
+ * the waits between them) stay within a total time budget. When the previous chain for the URL is
+ * known, the request is conditional on its {@code ETag}/{@code Last-Modified} validators and a
+ * {@code 304 Not Modified} answer re-uses it after re-checking its validity dates.
+ *
+ * Attempts, retries, failures and the time spent fetching are recorded in {@link VerifierMetrics}.
+ */
+final class CertificateFetcher {
+
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private final CertificateHttpClient httpClient;
+    private final CertificateChainVerifier chainVerifier;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long totalBudgetMs;
+    private final VerifierMetrics metrics;
+
+    CertificateFetcher(CertificateHttpClient httpClient, CertificateChainVerifier chainVerifier, int maxRetries,
+                       long initialBackoffMs, long maxBackoffMs, long totalBudgetMs, VerifierMetrics metrics) {
+        this.httpClient = httpClient;
+        this.chainVerifier = chainVerifier;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.totalBudgetMs = totalBudgetMs;
+        this.metrics = metrics;
+    }
+
+    VerifiedCertificateChain fetch(final URL url, final VerifiedCertificateChain previous) throws CertificateException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            VerifiedCertificateChain certificateChain = fetchWithRetries(url, previous);
+            succeeded = true;
+            return certificateChain;
+        } finally {
+            metrics.recordFetch(succeeded, System.nanoTime() - start);
+        }
+    }
+
+    private VerifiedCertificateChain fetchWithRetries(final URL url, final VerifiedCertificateChain previous)
+            throws CertificateException {
+        long deadline = System.currentTimeMillis() + totalBudgetMs;
+        String ifNoneMatch = previous == null ? null : previous.etag();
+        String ifModifiedSince = previous == null ? null : previous.lastModified();
+
+        for (int attempt = 0; ; attempt++) {
+            Exception failure;
+            try {
+                metrics.recordFetchAttempt(attempt > 0);
+                long remaining = deadline - System.currentTimeMillis();
+                CertificateHttpClient.Response response = httpClient.get(url, ifNoneMatch, ifModifiedSince,
+                        (int) Math.min(Integer.MAX_VALUE, Math.max(1L, remaining)));
+                int statusCode = response.statusCode();
+                if (statusCode == CertificateHttpClient.HTTP_OK) {
+                    return verify(response).withValidators(response.etag(), response.lastModified());
+                }
+                if (statusCode == CertificateHttpClient.HTTP_NOT_MODIFIED && previous != null) {
+                    for (X509Certificate certificate : previous.certificates()) {
+                        certificate.checkValidity();
+                    }
+                    return previous;
+                }
+                failure = new CertificateException("Got a " + statusCode
+                        + " status code when retrieving certificate at URL: " + url);
+                if (!isRetryable(statusCode)) {
+                    throw (CertificateException) failure;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            long delay = backoff(attempt);
+            if (attempt >= maxRetries || System.currentTimeMillis() + delay >= deadline) {
+                throw new CertificateException("Unable to retrieve certificate from URL: " + url
+                        + " after " + (attempt + 1) + " attempt(s)", failure);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CertificateException("Interrupted while waiting for certificate retrieval retry attempt", ex);
+            }
+        }
+    }
+
+    private VerifiedCertificateChain verify(final CertificateHttpClient.Response response) throws CertificateException {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        @SuppressWarnings("unchecked")
+        Collection<X509Certificate> certificateChain = (Collection<X509Certificate>)
+                certificateFactory.generateCertificates(new ByteArrayInputStream(response.body()));
+        // validates the trust chain and SAN, or only the dates when these bytes were seen before
+        return chainVerifier.verify(certificateChain.toArray(new X509Certificate[certificateChain.size()]));
+    }
+
+    // exponential backoff with "equal jitter": half of the delay is fixed, the other half random
+    private long backoff(final int attempt) {
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt, 20));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private static boolean isRetryable(final int statusCode) {
+        return statusCode >= HTTP_SERVER_ERROR || statusCode == HTTP_REQUEST_TIMEOUT
+                || statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+}
@@ -0,0 +1,51 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Transport used to download signing certificate chains. The default implementation is
+ * {@link UrlConnectionCertificateHttpClient}; tests can plug in a client that talks to a local
+ * server instead.
+ */
+interface CertificateHttpClient {
+
+    int HTTP_OK = 200;
+    int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * Performs a single GET, conditional on the validators when they are not null, that must
+     * complete within {@code timeoutMs}.
+     */
+    Response get(URL url, String ifNoneMatch, String ifModifiedSince, int timeoutMs) throws IOException;
+
+    final class Response {
+        private final int statusCode;
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Response(int statusCode, byte[] body, String etag, String lastModified) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        int statusCode() {
+            return statusCode;
+        }
+
+        byte[] body() {
+            return body;
+        }
+
+        String etag() {
+            return etag;
+        }
+
+        String lastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.apigee.edgecallouts;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.cert.CertificateException;
+import java.util.Locale;
+
+/**
+ * Which {@code SignatureCertChainUrl} values may be downloaded: the protocol, host and path
+ * prefix they must have, and whether only the protocol's default port is allowed.
+ *
+ * {@link #ALEXA} is the policy required by the Alexa Skills Kit, and its host and path prefix are
+ * the defaults of {@link VerifierPolicy}; other policies exist so that the verifier can be pointed
+ * at a local stand-in for S3.
+ */
+final class CertificateUrlPolicy {
+
+    private static final int UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT_VALUE = -1;
+
+    static final String ALEXA_HOST_NAME = "s3.amazonaws.com";
+    static final String ALEXA_PATH_PREFIX = "/echo.api/";
+
+    static final CertificateUrlPolicy ALEXA = new CertificateUrlPolicy("https", ALEXA_HOST_NAME, ALEXA_PATH_PREFIX, true);
+
+    private final String protocol;
+    private final String hostName;
+    private final String pathPrefix;
+    private final boolean defaultPortOnly;
+
+    CertificateUrlPolicy(String protocol, String hostName, String pathPrefix, boolean defaultPortOnly) {
+        this.protocol = protocol;
+        this.hostName = hostName;
+        this.pathPrefix = pathPrefix;
+        this.defaultPortOnly = defaultPortOnly;
+    }
+
+    /**
+     * Checks the URL and returns it in its canonical form, the key the certificate cache uses.
+     */
+    String cacheKey(final String signingCertificateChainUrl) throws CertificateException {
+        return canonical(verify(signingCertificateChainUrl));
+    }
+
+    /**
+     * Canonical form of an already verified certificate chain URL: lower-case scheme and host,
+     * no default port, and the normalized path decoded and then encoded again, so that URLs
+     * naming the same object in different spellings share one cache entry.
+     */
+    static String canonical(final URL url) throws CertificateException {
+        int port = url.getPort();
+        try {
+            return new URI(url.getProtocol().toLowerCase(Locale.ROOT), null,
+                    url.getHost().toLowerCase(Locale.ROOT),
+                    port == url.getDefaultPort() ? UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT_VALUE : port,
+                    url.toURI().getPath(), null, null).toASCIIString();
+        } catch (URISyntaxException ex) {
+            throw new CertificateException(String.format(
+                    "SigningCertificateChainUrl [%s] is malformed", url), ex);
+        }
+    }
+
+    URL verify(final String signingCertificateChainUrl) throws CertificateException {
+        try {
+            URI uri = new URI(signingCertificateChainUrl).normalize();
+            // A query or fragment does not change the object S3 serves, but would give it a new cache key
+            if (uri.getRawQuery() != null || uri.getRawFragment() != null) {
+                throw new CertificateException(String.format(
+                        "SigningCertificateChainUrl [%s] must not have a query or fragment",
+                        signingCertificateChainUrl));
+            }
+            URL url = uri.toURL();
+
+            // Validate the hostname
+            if (!hostName.equalsIgnoreCase(url.getHost())) {
+                throw new CertificateException(String.format(
+                        "SigningCertificateChainUrl [%s] does not contain the required hostname"
+                                + " of [%s]", signingCertificateChainUrl, hostName));
+            }
+
+            // Validate the path prefix, on the decoded path, which must not hide dot segments
+            String path = uri.getPath();
+            if (path == null || !path.startsWith(pathPrefix)
+                    || !path.equals(new URI(null, null, path, null).normalize().getPath())) {
+                throw new CertificateException(String.format(
+                        "SigningCertificateChainUrl path [%s] is invalid. Expecting path to "
+                                + "start with [%s]", signingCertificateChainUrl, pathPrefix));
+            }
+
+            // Validate the protocol
+            String urlProtocol = url.getProtocol();
+            if (!protocol.equalsIgnoreCase(urlProtocol)) {
+                throw new CertificateException(String.format(
+                        "SigningCertificateChainUrl [%s] contains an unsupported protocol [%s]",
+                        signingCertificateChainUrl, urlProtocol));
+            }
+
+            // Validate the port uses the default of 443 for HTTPS if explicitly defined in the URL
+            int urlPort = url.getPort();
+            if (defaultPortOnly && (urlPort != UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT_VALUE)
+                    && (urlPort != url.getDefaultPort())) {
+                throw new CertificateException(String.format(
+                        "SigningCertificateChainUrl [%s] contains an invalid port [%d]",
+                        signingCertificateChainUrl, urlPort));
+            }
+
+            return url;
+        } catch (IllegalArgumentException | MalformedURLException | URISyntaxException ex) {
+            throw new CertificateException(String.format(
+                    "SigningCertificateChainUrl [%s] is malformed", signingCertificateChainUrl), ex);
+        }
+    }
+}
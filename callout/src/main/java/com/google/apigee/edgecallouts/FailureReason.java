@@ -0,0 +1,31 @@
+package com.google.apigee.edgecallouts;
+
+/**
+ * Why a request was rejected. The codes are compile-time constants, so reporting a failure never
+ * builds a String; they are written to the {@code apigee-alexa-verifier-callout.error} flow
+ * variable.
+ */
+public enum FailureReason {
+
+    MISSING_HEADERS("missing_headers"),
+    HEADER_TOO_LARGE("header_too_large"),
+    INVALID_SIGNATURE_ENCODING("invalid_signature_encoding"),
+    INVALID_CERT_URL("invalid_cert_url"),
+    CERTIFICATE_UNAVAILABLE("certificate_unavailable"),
+    SIGNATURE_MISMATCH("signature_mismatch"),
+    BODY_UNREADABLE("body_unreadable"),
+    INVALID_TIMESTAMP("invalid_timestamp"),
+    TIMESTAMP_OUT_OF_WINDOW("timestamp_out_of_window"),
+    REPLAYED_REQUEST("replayed_request"),
+    INTERNAL_ERROR("internal_error");
+
+    private final String code;
+
+    FailureReason(String code) {
+        this.code = code;
+    }
+
+    public String code() {
+        return code;
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.apigee.edgecallouts;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram with striped counters, cheap enough to record every request.
+ *
+ * Bucket {@code i} counts latencies below {@code 2^i} microseconds (bucket 0 is below one
+ * microsecond), the last bucket collects everything slower. Percentiles are reported as the upper
+ * bound of the bucket they fall in, i.e. with at most a factor of two overestimate.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 26;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        long micros = Math.max(0L, nanos) / 1000L;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long meanMicros() {
+        long count = count();
+        return count == 0 ? 0 : totalNanos.sum() / 1000L / count;
+    }
+
+    /**
+     * Upper bound, in microseconds, of the bucket holding the given percentile (0 to 100). The last
+     * bucket has no upper bound and reports {@link Long#MAX_VALUE}.
+     */
+    long percentileMicros(final double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,194 @@
+package com.google.apigee.edgecallouts;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the signatures of verified requests for the tolerance window so a captured request
+ * cannot be replayed while its timestamp is still accepted.
+ *
+ * Requests are identified by the first 128 bits of their RSA signature, which are uniformly
+ * distributed for genuine signatures. The set is split into lock-striped segments; each segment
+ * is a ring of time buckets, and each bucket a fixed-capacity open-addressing table whose slots
+ * are stamped with the bucket's epoch. A bucket that falls out of the window is reused by bumping
+ * its epoch, so expiry is O(1) and memory is allocated once, up front.
+ *
+ * {@link #isReplay} is meant to run before the RSA verification and {@link #record} after it, so
+ * only validly signed requests take up space. When a bucket is full, further requests are not
+ * remembered (the guard fails open) and counted in {@link #overflowCount()}.
+ */
+final class ReplayGuard {
+
+    private static final int KEY_BYTES = 16;
+    private static final int BUCKETS_PER_WINDOW = 8;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long bucketMillis;
+
+    ReplayGuard(long windowMillis, int maxEntries, int stripes) {
+        int segmentCount = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        this.bucketMillis = Math.max(1L, windowMillis / BUCKETS_PER_WINDOW);
+        // one extra bucket so that entries are kept for at least a full window
+        int bucketsPerSegment = (int) ((windowMillis + bucketMillis - 1) / bucketMillis) + 1;
+        int entriesPerBucket = Math.max(1, maxEntries / (segmentCount * (bucketsPerSegment - 1)));
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(bucketsPerSegment, entriesPerBucket);
+        }
+    }
+
+    /**
+     * True when a request with this signature was recorded within the window.
+     */
+    boolean isReplay(final byte[] signature, final long now) {
+        if (signature.length < KEY_BYTES) {
+            return false;
+        }
+        long hi = readLong(signature, 0);
+        long lo = readLong(signature, 8);
+        Segment segment = segments[segmentIndex(hi, lo)];
+        synchronized (segment) {
+            return segment.contains(hi, lo, now / bucketMillis);
+        }
+    }
+
+    /**
+     * Records a verified request. Returns false when the signature was already recorded within
+     * the window, i.e. a concurrent duplicate got there first.
+     */
+    boolean record(final byte[] signature, final long now) {
+        if (signature.length < KEY_BYTES) {
+            return true;
+        }
+        long hi = readLong(signature, 0);
+        long lo = readLong(signature, 8);
+        Segment segment = segments[segmentIndex(hi, lo)];
+        long epoch = now / bucketMillis;
+        synchronized (segment) {
+            if (segment.contains(hi, lo, epoch)) {
+                return false;
+            }
+            segment.add(hi, lo, epoch);
+            return true;
+        }
+    }
+
+    long overflowCount() {
+        long overflows = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                overflows += segment.overflows;
+            }
+        }
+        return overflows;
+    }
+
+    private int segmentIndex(final long hi, final long lo) {
+        long h = mix(hi ^ lo);
+        return (int) (h >>> 32) & segmentMask;
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xffL);
+        }
+        return value;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Segment {
+        private final Bucket[] ring;
+        private long overflows;
+
+        Segment(int buckets, int entriesPerBucket) {
+            ring = new Bucket[buckets];
+            for (int i = 0; i < buckets; i++) {
+                ring[i] = new Bucket(entriesPerBucket);
+            }
+        }
+
+        boolean contains(final long hi, final long lo, final long epoch) {
+            long oldest = epoch - ring.length + 1;
+            for (Bucket bucket : ring) {
+                if (bucket.epoch >= oldest && bucket.epoch <= epoch && bucket.contains(hi, lo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(final long hi, final long lo, final long epoch) {
+            Bucket bucket = ring[(int) (epoch % ring.length)];
+            if (bucket.epoch != epoch) {
+                bucket.reset(epoch);
+            }
+            if (!bucket.add(hi, lo)) {
+                overflows++;
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final long[] his;
+        private final long[] los;
+        // a slot is in use only when its stamp equals the bucket's current stamp
+        private final int[] stamps;
+        private final int capacity;
+        private final int mask;
+        private long epoch = Long.MIN_VALUE;
+        private int stamp;
+        private int size;
+
+        Bucket(int capacity) {
+            int slots = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            this.his = new long[slots];
+            this.los = new long[slots];
+            this.stamps = new int[slots];
+            this.capacity = capacity;
+            this.mask = slots - 1;
+        }
+
+        void reset(final long newEpoch) {
+            epoch = newEpoch;
+            size = 0;
+            stamp++;
+            if (stamp == 0) {
+                // stamps wrapped around, clear them once so stale slots cannot look current
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        boolean contains(final long hi, final long lo) {
+            for (int slot = (int) mix(hi ^ lo) & mask; stamps[slot] == stamp; slot = (slot + 1) & mask) {
+                if (his[slot] == hi && los[slot] == lo) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean add(final long hi, final long lo) {
+            if (size >= capacity) {
+                return false;
+            }
+            int slot = (int) mix(hi ^ lo) & mask;
+            while (stamps[slot] == stamp) {
+                slot = (slot + 1) & mask;
+            }
+            his[slot] = hi;
+            los[slot] = lo;
+            stamps[slot] = stamp;
+            size++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.util.Base64;
+import java.util.Base64.Decoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.apigee.edgecallouts.util.RequestTimestampScanner;
+import com.google.apigee.edgecallouts.util.TimestampParser;
+
+/**
+ * The verification of a single skill request, independent of the Apigee message flow.
+ *
+ * The checks run cheapest first, so that malformed or hostile requests are turned away before
+ * any certificate download or RSA work:
+ * <ol>
+ * <li>presence and size of the signature and certificate URL headers</li>
+ * <li>Base64 decoding of the signature</li>
+ * <li>the replay check, when a {@link ReplayGuard} is configured</li>
+ * <li>the certificate URL check, memoized per URL string</li>
+ * <li>the request timestamp, against a window on both sides of the current time</li>
+ * <li>the certificate lookup, which may wait on a download</li>
+ * <li>the RSA signature of the body</li>
+ * </ol>
+ *
+ * The order is fixed rather than configurable: each check guards the more expensive ones after it,
+ * and the certificate lookup relies on the URL check before it. Only the parameters of the checks
+ * (header limits, timestamp window, whether the replay check runs) come from the callout
+ * properties.
+ *
+ * When the timestamp is taken from the body itself ({@link #verifyWithBodyTimestamp}) it is
+ * scanned out of the same pass that feeds the signature digest, so its check moves after the RSA
+ * verification.
+ */
+final class RequestVerifier {
+
+    /**
+     * The signed request body, fed to the signature check only once all cheaper checks passed.
+     */
+    interface SignedContent {
+        /**
+         * @param timestampScanner when not null, every byte of the body must also be fed to it
+         */
+        boolean verify(PublicKey publicKey, byte[] signature, RequestTimestampScanner timestampScanner)
+                throws GeneralSecurityException, IOException;
+    }
+
+    private static final Decoder base64decoder = Base64.getDecoder();
+    private static final int MAX_MEMOIZED_URLS = 256;
+
+    private final CertificateUrlPolicy certificateUrlPolicy;
+    private final CertificateCache certificateCache;
+    private final VerifierMetrics metrics;
+    private final ReplayGuard replayGuard;
+    private final int maxSignatureLength;
+    private final int maxCertificateUrlLength;
+    private final long pastToleranceMs;
+    private final long futureToleranceMs;
+
+    // raw URL string -> canonical cache key, or the CertificateException it was rejected with
+    private final Map<String, Object> checkedUrls = new ConcurrentHashMap<>();
+
+    RequestVerifier(CertificateUrlPolicy certificateUrlPolicy, CertificateCache certificateCache,
+                    VerifierMetrics metrics, ReplayGuard replayGuard, int maxSignatureLength,
+                    int maxCertificateUrlLength, long pastToleranceMs, long futureToleranceMs) {
+        this.certificateUrlPolicy = certificateUrlPolicy;
+        this.certificateCache = certificateCache;
+        this.metrics = metrics;
+        this.replayGuard = replayGuard;
+        this.maxSignatureLength = maxSignatureLength;
+        this.maxCertificateUrlLength = maxCertificateUrlLength;
+        this.pastToleranceMs = pastToleranceMs;
+        this.futureToleranceMs = futureToleranceMs;
+    }
+
+    /**
+     * @throws VerificationException when any of the checks fails
+     */
+    void verify(final String baseEncoded64Signature, final String signingCertificateChainUrl,
+                final CharSequence bodyTimestamp, final SignedContent content) {
+        verify(baseEncoded64Signature, signingCertificateChainUrl, bodyTimestamp, false, content,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #verify(String, String, CharSequence, SignedContent)}, with the timestamp
+     * read from {@code request.timestamp} in the body.
+     *
+     * @throws VerificationException when any of the checks fails
+     */
+    void verifyWithBodyTimestamp(final String baseEncoded64Signature, final String signingCertificateChainUrl,
+                                 final SignedContent content) {
+        verifyWithBodyTimestamp(baseEncoded64Signature, signingCertificateChainUrl, content,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #verifyWithBodyTimestamp(String, String, SignedContent)}, with the timestamp
+     * window and the replay guard taken as of {@code now} instead of the current time, e.g. the
+     * time a captured request was received.
+     *
+     * @throws VerificationException when any of the checks fails
+     */
+    void verifyWithBodyTimestamp(final String baseEncoded64Signature, final String signingCertificateChainUrl,
+                                 final SignedContent content, final long now) {
+        verify(baseEncoded64Signature, signingCertificateChainUrl, null, true, content, now);
+    }
+
+    private void verify(final String baseEncoded64Signature, final String signingCertificateChainUrl,
+                        final CharSequence bodyTimestamp, final boolean timestampInBody,
+                        final SignedContent content, final long now) {
+        if ((baseEncoded64Signature == null) || (signingCertificateChainUrl == null)) {
+            throw new VerificationException(FailureReason.MISSING_HEADERS,
+                    "Missing signature/certificate for the provided skill request");
+        }
+        if (baseEncoded64Signature.length() > maxSignatureLength
+                || signingCertificateChainUrl.length() > maxCertificateUrlLength) {
+            throw new VerificationException(FailureReason.HEADER_TOO_LARGE,
+                    "The signature/certificate header exceeds the configured size limit");
+        }
+
+        byte[] signatureBytes;
+        try {
+            signatureBytes = base64decoder.decode(baseEncoded64Signature);
+        } catch (IllegalArgumentException ex) {
+            throw new VerificationException(FailureReason.INVALID_SIGNATURE_ENCODING,
+                    "The request signature is not valid Base64", ex);
+        }
+
+        if (replayGuard != null && replayGuard.isReplay(signatureBytes, now)) {
+            throw new VerificationException(FailureReason.REPLAYED_REQUEST,
+                    "The skill request has already been processed");
+        }
+
+        // reject bad URLs before they can reach the cache, and key it on the canonical form
+        String certificateCacheKey;
+        try {
+            certificateCacheKey = checkSigningCertificateChainUrl(signingCertificateChainUrl);
+        } catch (CertificateException ex) {
+            throw new VerificationException(FailureReason.INVALID_CERT_URL, ex.getMessage(), ex);
+        }
+
+        long stageStart = System.nanoTime();
+        if (!timestampInBody) {
+            try {
+                checkTimestamp(bodyTimestamp, now);
+            } finally {
+                stageStart = recordStage(metrics.timestampCheckLatency, stageStart);
+            }
+        }
+
+        // waits on a shared, single-flight fetch when the certificate is not cached yet
+        X509Certificate signingCertificate;
+        try {
+            signingCertificate = certificateCache.get(certificateCacheKey);
+        } catch (CertificateException ex) {
+            throw new VerificationException(FailureReason.CERTIFICATE_UNAVAILABLE,
+                    "Failed to verify the signature/certificate for the provided skill request", ex);
+        } finally {
+            stageStart = recordStage(metrics.certLookupLatency, stageStart);
+        }
+
+        // verify that the request was signed by the provided certificate
+        RequestTimestampScanner timestampScanner = timestampInBody ? new RequestTimestampScanner() : null;
+        try {
+            if (!content.verify(signingCertificate.getPublicKey(), signatureBytes, timestampScanner)) {
+                throw new VerificationException(FailureReason.SIGNATURE_MISMATCH,
+                        "Failed to verify the signature/certificate for the provided skill request");
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new VerificationException(FailureReason.SIGNATURE_MISMATCH,
+                    "Failed to verify the signature/certificate for the provided skill request", ex);
+        } catch (IOException ex) {
+            throw new VerificationException(FailureReason.BODY_UNREADABLE,
+                    "Unable to read the skill request body", ex);
+        } finally {
+            stageStart = recordStage(metrics.signatureCheckLatency, stageStart);
+        }
+
+        if (timestampInBody) {
+            try {
+                checkTimestamp(timestampScanner.timestamp(), now);
+            } finally {
+                recordStage(metrics.timestampCheckLatency, stageStart);
+            }
+        }
+
+        // only requests that passed every check are remembered, so forged ones cannot fill the guard
+        if (replayGuard != null && !replayGuard.record(signatureBytes, now)) {
+            throw new VerificationException(FailureReason.REPLAYED_REQUEST,
+                    "The skill request has already been processed");
+        }
+    }
+
+    // Verify request timestamp. "2022-08-05T18:38:06Z"
+    private void checkTimestamp(final CharSequence bodyTimestamp, final long now) {
+        long bodyTime;
+        try {
+            bodyTime = TimestampParser.parseEpochMillis(bodyTimestamp);
+        } catch (ParseException ex) {
+            throw new VerificationException(FailureReason.INVALID_TIMESTAMP,
+                    "The request timestamp is missing or malformed", ex);
+        }
+        if (now - bodyTime > pastToleranceMs || bodyTime - now > futureToleranceMs) {
+            throw new VerificationException(FailureReason.TIMESTAMP_OUT_OF_WINDOW, String.format(
+                    "Request is more than %d seconds in the past or %d seconds in the future",
+                    TimeUnit.MILLISECONDS.toSeconds(pastToleranceMs),
+                    TimeUnit.MILLISECONDS.toSeconds(futureToleranceMs)));
+        }
+    }
+
+    private String checkSigningCertificateChainUrl(final String signingCertificateChainUrl)
+            throws CertificateException {
+        Object checked = checkedUrls.get(signingCertificateChainUrl);
+        if (checked == null) {
+            try {
+                checked = certificateUrlPolicy.cacheKey(signingCertificateChainUrl);
+            } catch (CertificateException ex) {
+                checked = ex;
+            }
+            if (checkedUrls.size() >= MAX_MEMOIZED_URLS) {
+                checkedUrls.clear();
+            }
+            checkedUrls.put(signingCertificateChainUrl, checked);
+        }
+        if (checked instanceof CertificateException) {
+            throw (CertificateException) checked;
+        }
+        return (String) checked;
+    }
+
+    private static long recordStage(final LatencyHistogram histogram, final long stageStart) {
+        long now = System.nanoTime();
+        histogram.record(now - stageStart);
+        return now;
+    }
+}
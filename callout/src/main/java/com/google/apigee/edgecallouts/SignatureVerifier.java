@@ -0,0 +1,94 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+
+/**
+ * Thread-confined SHA256withRSA verifier.
+ *
+ * Each thread keeps one {@link Signature} and the key it was initialized with. As long as the
+ * same certificate keeps signing requests the provider lookup and {@code initVerify} happen once
+ * per thread; {@link Signature#verify(byte[])} resets the object back to its initialized state,
+ * so it can be reused for the next request. A verifier that failed half way is thrown away.
+ *
+ * Streamed content is fed to the digest in chunks through a per-thread buffer, so the cost of
+ * hashing a request body does not depend on holding the whole payload in memory.
+ *
+ * The price of keeping the verifier in a {@link ThreadLocal} is that Apigee's pooled message
+ * processor threads outlive a deployment of the callout: each thread that ran it keeps its
+ * verifier, about 9 KB, and through it the callout's classloader, until the thread ends. A
+ * redeploy therefore leaves the previous revision's classes loaded for as long as those threads
+ * live. This is accepted because it is bounded by the number of pooled threads per revision,
+ * while a shared pool would add synchronization to every request.
+ */
+final class SignatureVerifier {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<SignatureVerifier> CURRENT = ThreadLocal.withInitial(SignatureVerifier::new);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private Signature signature;
+    private PublicKey publicKey;
+
+    private SignatureVerifier() {
+    }
+
+    static boolean verify(final PublicKey publicKey, final byte[] content, final byte[] signatureBytes)
+            throws GeneralSecurityException {
+        SignatureVerifier verifier = CURRENT.get();
+        Signature signature = verifier.signatureFor(publicKey);
+        boolean completed = false;
+        try {
+            signature.update(content);
+            boolean valid = signature.verify(signatureBytes);
+            completed = true;
+            return valid;
+        } finally {
+            if (!completed) {
+                verifier.reset();
+            }
+        }
+    }
+
+    static boolean verify(final PublicKey publicKey, final InputStream content, final byte[] signatureBytes)
+            throws GeneralSecurityException, IOException {
+        SignatureVerifier verifier = CURRENT.get();
+        Signature signature = verifier.signatureFor(publicKey);
+        byte[] buffer = verifier.buffer;
+        boolean completed = false;
+        try {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                signature.update(buffer, 0, read);
+            }
+            boolean valid = signature.verify(signatureBytes);
+            completed = true;
+            return valid;
+        } finally {
+            if (!completed) {
+                verifier.reset();
+            }
+        }
+    }
+
+    private Signature signatureFor(final PublicKey key) throws GeneralSecurityException {
+        if (signature != null && (publicKey == key || publicKey.equals(key))) {
+            return signature;
+        }
+        reset();
+        Signature created = Signature.getInstance(SIGNATURE_ALGORITHM);
+        created.initVerify(key);
+        signature = created;
+        publicKey = key;
+        return created;
+    }
+
+    private void reset() {
+        signature = null;
+        publicKey = null;
+    }
+}
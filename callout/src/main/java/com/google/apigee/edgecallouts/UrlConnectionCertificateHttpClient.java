@@ -0,0 +1,84 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CertificateHttpClient} on top of {@link HttpURLConnection}.
+ *
+ * Connect and read timeouts are always set, and together they never exceed the time the caller
+ * has left; the read timeout is fixed once the connection is made, so it cannot be taken from
+ * what the connect left over. Since the read timeout only bounds a single read,
+ * the body is also read against a deadline for the whole request, so a server that trickles out
+ * bytes cannot hold a fetch thread past the time it was given. Response bodies, including error
+ * bodies, are read to the end and the stream is closed without disconnecting, which lets the JDK
+ * keep-alive cache reuse the connection for the next download from the same host. Bodies larger
+ * than {@code maxBodyBytes} are rejected.
+ */
+final class UrlConnectionCertificateHttpClient implements CertificateHttpClient {
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxBodyBytes;
+
+    UrlConnectionCertificateHttpClient(int connectTimeoutMs, int readTimeoutMs, int maxBodyBytes) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public Response get(final URL url, final String ifNoneMatch, final String ifModifiedSince, final int timeoutMs)
+            throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int connectTimeout = connectTimeoutMs;
+        int readTimeout = readTimeoutMs;
+        if ((long) connectTimeoutMs + readTimeoutMs > timeoutMs) {
+            // short of time, both shrink in proportion so a slow connect cannot double the attempt
+            connectTimeout = (int) ((long) timeoutMs * connectTimeoutMs / ((long) connectTimeoutMs + readTimeoutMs));
+            readTimeout = timeoutMs - connectTimeout;
+        }
+        connection.setConnectTimeout(Math.max(1, connectTimeout));
+        connection.setReadTimeout(Math.max(1, readTimeout));
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+        }
+
+        int statusCode = connection.getResponseCode();
+        InputStream in = statusCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+        byte[] body = in == null ? new byte[0] : readFully(in, deadline, timeoutMs);
+        return new Response(statusCode, body, connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"));
+    }
+
+    private byte[] readFully(final InputStream in, final long deadline, final int timeoutMs) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxBodyBytes) {
+                    throw new IOException("Certificate response exceeds " + maxBodyBytes + " bytes");
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new SocketTimeoutException("Certificate response not read within " + timeoutMs + " ms");
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.apigee.edgecallouts;
+
+/**
+ * Rejection of a skill request, tagged with its {@link FailureReason}.
+ *
+ * Rejections are an expected outcome for hostile traffic, so the exception does not capture a
+ * stack trace; the cause, when there is one, keeps its own.
+ */
+public class VerificationException extends SecurityException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FailureReason reason;
+
+    public VerificationException(FailureReason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public VerificationException(FailureReason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public FailureReason getReason() {
+        return reason;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,56 @@
+package com.google.apigee.edgecallouts;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * A signing certificate chain that passed {@link CertificateChainVerifier}, together with its
+ * SHA-256 fingerprint and, once downloaded, the HTTP validators it was served with. The signing
+ * certificate is the first one in the chain.
+ */
+final class VerifiedCertificateChain {
+
+    private final X509Certificate[] certificates;
+    private final String fingerprint;
+    private final String etag;
+    private final String lastModified;
+
+    VerifiedCertificateChain(X509Certificate[] certificates, String fingerprint) {
+        this(certificates, fingerprint, null, null);
+    }
+
+    private VerifiedCertificateChain(X509Certificate[] certificates, String fingerprint, String etag,
+                                     String lastModified) {
+        this.certificates = certificates;
+        this.fingerprint = fingerprint;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Same chain (and certificate instances) with the {@code ETag}/{@code Last-Modified} values of
+     * the response it was downloaded from.
+     */
+    VerifiedCertificateChain withValidators(String etag, String lastModified) {
+        return new VerifiedCertificateChain(certificates, fingerprint, etag, lastModified);
+    }
+
+    X509Certificate signingCertificate() {
+        return certificates[0];
+    }
+
+    X509Certificate[] certificates() {
+        return certificates.clone();
+    }
+
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    String etag() {
+        return etag;
+    }
+
+    String lastModified() {
+        return lastModified;
+    }
+}
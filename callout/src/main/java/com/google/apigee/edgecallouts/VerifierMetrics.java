@@ -0,0 +1,237 @@
+package com.google.apigee.edgecallouts;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.apigee.flow.message.MessageContext;
+
+/**
+ * Verification metrics: request outcomes, rejections by reason, per-stage latency histograms and
+ * certificate fetch statistics, together with the certificate cache and replay guard counters.
+ *
+ * Recording only touches striped counters, so it is safe and cheap on every request; all the
+ * aggregation happens when the metrics are read through JMX.
+ */
+final class VerifierMetrics implements VerifierMetricsMXBean {
+
+    static final String OBJECT_NAME = "com.google.apigee.edgecallouts:type=AlexaVerifier,name=metrics";
+
+    private static final FailureReason[] REASONS = FailureReason.values();
+    private static final int MAX_OBJECT_NAME_SUFFIX = 100;
+
+    private final CertificateCache certificateCache;
+    private final ReplayGuard replayGuard;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder[] rejections = new LongAdder[REASONS.length];
+
+    final LatencyHistogram verifyLatency = new LatencyHistogram();
+    final LatencyHistogram certLookupLatency = new LatencyHistogram();
+    final LatencyHistogram signatureCheckLatency = new LatencyHistogram();
+    final LatencyHistogram timestampCheckLatency = new LatencyHistogram();
+
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder fetchAttempts = new LongAdder();
+    private final LongAdder fetchRetries = new LongAdder();
+    private final LongAdder fetchFailures = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+
+    /**
+     * @param replayGuard the replay guard of the same verifier, or null when replay protection is off
+     */
+    VerifierMetrics(CertificateCache certificateCache, ReplayGuard replayGuard) {
+        this.certificateCache = certificateCache;
+        this.replayGuard = replayGuard;
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    void recordVerified(final long nanos) {
+        requests.increment();
+        verified.increment();
+        verifyLatency.record(nanos);
+    }
+
+    void recordRejected(final FailureReason reason, final long nanos) {
+        requests.increment();
+        rejections[reason.ordinal()].increment();
+        verifyLatency.record(nanos);
+    }
+
+    void recordFetchAttempt(final boolean retry) {
+        fetchAttempts.increment();
+        if (retry) {
+            fetchRetries.increment();
+        }
+    }
+
+    void recordFetch(final boolean succeeded, final long nanos) {
+        fetches.increment();
+        if (!succeeded) {
+            fetchFailures.increment();
+        }
+        fetchNanos.add(nanos);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under the given object name or, when a
+     * bean already has it, under the name with the first free {@code -2}, {@code -3}, ... suffix.
+     * Proxies and revisions that share a message processor load the callout in classloaders of
+     * their own, so the name may be held by another deployment, whose bean is left alone. Failing
+     * to register (e.g. under a restrictive security manager) only means the metrics are not
+     * visible through JMX.
+     *
+     * @return the name the metrics are registered under, or null when they are not registered
+     */
+    String registerMBean(final String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (int suffix = 1; suffix <= MAX_OBJECT_NAME_SUFFIX; suffix++) {
+                String candidate = suffix == 1 ? objectName : objectName + "-" + suffix;
+                try {
+                    server.registerMBean(this, new ObjectName(candidate));
+                    return candidate;
+                } catch (InstanceAlreadyExistsException e) {
+                    //IGNORED, try the next suffix
+                }
+            }
+        } catch (JMException | RuntimeException e) {
+            //IGNORED, metrics stay available through flow variables
+        }
+        return null;
+    }
+
+    /**
+     * Removes the bean registered by {@link #registerMBean}, so that its name can be reused.
+     */
+    void unregisterMBean(final String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(objectName));
+        } catch (JMException | RuntimeException e) {
+            //IGNORED, already gone
+        }
+    }
+
+    /**
+     * Writes the outcome of the current request to {@code <prefix>.metrics.*} flow variables: whether
+     * it was verified, its verification time and whether the certificate cache is warm. The
+     * cumulative counters and histograms are not summed here, that is left to JMX readers.
+     */
+    void exportRequest(final MessageContext messageContext, final String prefix, final boolean requestVerified,
+                       final long nanos) {
+        String metricsPrefix = prefix + ".metrics.";
+        messageContext.setVariable(metricsPrefix + "verified", requestVerified);
+        messageContext.setVariable(metricsPrefix + "latency_us", nanos / 1000L);
+        messageContext.setVariable(metricsPrefix + "cache.warm", isCacheWarm());
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getVerifiedCount() {
+        return verified.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        long rejected = 0;
+        for (LongAdder rejection : rejections) {
+            rejected += rejection.sum();
+        }
+        return rejected;
+    }
+
+    @Override
+    public Map<String, Long> getRejections() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (FailureReason reason : REASONS) {
+            counts.put(reason.code(), rejections[reason.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return certificateCache.hitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return certificateCache.missCount();
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return certificateCache.evictionCount();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return certificateCache.size();
+    }
+
+    @Override
+    public boolean isCacheWarm() {
+        return certificateCache.isWarm();
+    }
+
+    @Override
+    public long getReplayCacheOverflowCount() {
+        return replayGuard == null ? 0L : replayGuard.overflowCount();
+    }
+
+    @Override
+    public long getCertificateFetchCount() {
+        return fetches.sum();
+    }
+
+    @Override
+    public long getCertificateFetchAttemptCount() {
+        return fetchAttempts.sum();
+    }
+
+    @Override
+    public long getCertificateFetchRetryCount() {
+        return fetchRetries.sum();
+    }
+
+    @Override
+    public long getCertificateFetchFailureCount() {
+        return fetchFailures.sum();
+    }
+
+    @Override
+    public long getCertificateFetchTimeMillis() {
+        return fetchNanos.sum() / 1000000L;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMicros() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        putLatencies(latencies, "verify", verifyLatency);
+        putLatencies(latencies, "certLookup", certLookupLatency);
+        putLatencies(latencies, "signatureCheck", signatureCheckLatency);
+        putLatencies(latencies, "timestampCheck", timestampCheckLatency);
+        return latencies;
+    }
+
+    private static void putLatencies(final Map<String, Long> latencies, final String stage,
+                                     final LatencyHistogram histogram) {
+        latencies.put(stage + ".mean", histogram.meanMicros());
+        latencies.put(stage + ".p50", histogram.percentileMicros(50));
+        latencies.put(stage + ".p99", histogram.percentileMicros(99));
+        latencies.put(stage + ".p999", histogram.percentileMicros(99.9));
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.apigee.edgecallouts;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link VerifierMetrics}, one bean per verification policy, registered as
+ * {@code com.google.apigee.edgecallouts:type=AlexaVerifier,name=metrics} for the default policy,
+ * {@code name=metrics-<policy-name>} for named policies and {@code name=metrics-policy-<hash>}
+ * for the others. When another deployment in the same JVM already holds the name, a {@code -2},
+ * {@code -3}, ... suffix is appended. All counters are cumulative since the policy was built.
+ */
+public interface VerifierMetricsMXBean {
+
+    long getRequestCount();
+
+    long getVerifiedCount();
+
+    long getRejectedCount();
+
+    /**
+     * Rejections by {@link FailureReason#code()}.
+     */
+    Map<String, Long> getRejections();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getCacheEvictionCount();
+
+    int getCacheSize();
+
+    /**
+     * True when every certificate URL listed in {@code prewarm-cert-urls} is cached, which is
+     * also the case when none are listed.
+     */
+    boolean isCacheWarm();
+
+    /**
+     * Verified requests that were not remembered by the replay guard because their slot of the
+     * replay cache was full, so a replay of them would not be caught; 0 without
+     * {@code replay-protection}. A growing count means {@code replay-cache-max-entries} is too low.
+     */
+    long getReplayCacheOverflowCount();
+
+    long getCertificateFetchCount();
+
+    long getCertificateFetchAttemptCount();
+
+    long getCertificateFetchRetryCount();
+
+    long getCertificateFetchFailureCount();
+
+    long getCertificateFetchTimeMillis();
+
+    /**
+     * Mean, p50, p99 and p999 in microseconds for {@code verify}, {@code certLookup},
+     * {@code signatureCheck} and {@code timestampCheck}, keyed like {@code verify.p99}.
+     */
+    Map<String, Long> getLatencyMicros();
+}
@@ -0,0 +1,389 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Everything that decides whether a skill request is accepted, other than the request itself:
+ * where certificates may be downloaded from and whom they must be issued to, how downloads are
+ * retried, the timestamp window, header limits and replay protection.
+ *
+ * A policy is built from the callout properties listed below, once per distinct set of values,
+ * and shared by every callout instance configured with that set. Each policy owns its
+ * certificate cache, fetcher, metrics and {@link RequestVerifier}, so skills or environments
+ * with different needs never see each other's certificates; only the fetch threads are shared.
+ * Nothing here is looked at again on the request path. A policy that is no longer needed is
+ * {@linkplain #close() closed}, which stops the background refresh of its certificates.
+ */
+final class VerifierPolicy implements AutoCloseable {
+
+    static final String POLICY_NAME = "policy-name";
+    static final String CERT_URL_HOST = "cert-url-host";
+    static final String CERT_URL_PATH_PREFIX = "cert-url-path-prefix";
+    static final String CERT_SUBJECT_ALT_NAME = "cert-subject-alt-name";
+    static final String CERT_FETCH_RETRIES = "cert-fetch-retries";
+    static final String CERT_FETCH_INITIAL_BACKOFF_MS = "cert-fetch-initial-backoff-ms";
+    static final String CERT_FETCH_MAX_BACKOFF_MS = "cert-fetch-max-backoff-ms";
+    static final String CERT_FETCH_CONNECT_TIMEOUT_MS = "cert-fetch-connect-timeout-ms";
+    static final String CERT_FETCH_READ_TIMEOUT_MS = "cert-fetch-read-timeout-ms";
+    static final String CERT_FETCH_TOTAL_BUDGET_MS = "cert-fetch-total-budget-ms";
+    static final String CERT_FETCH_WAIT_TIMEOUT_MS = "cert-fetch-wait-timeout-ms";
+    static final String CERT_CACHE_MAX_ENTRIES = "cert-cache-max-entries";
+    static final String CERTIFICATE_STORE_DIR = "certificate-store-dir";
+    static final String PREWARM_CERT_URLS = "prewarm-cert-urls";
+    static final String REPLAY_PROTECTION = "replay-protection";
+    static final String REPLAY_CACHE_MAX_ENTRIES = "replay-cache-max-entries";
+    static final String MAX_SIGNATURE_LENGTH = "max-signature-length";
+    static final String MAX_CERT_URL_LENGTH = "max-cert-url-length";
+    static final String TIMESTAMP_TOLERANCE_SECONDS = "timestamp-tolerance-seconds";
+    static final String TIMESTAMP_FUTURE_TOLERANCE_SECONDS = "timestamp-future-tolerance-seconds";
+
+    private static final String[] PROPERTY_NAMES = {
+            POLICY_NAME, CERT_URL_HOST, CERT_URL_PATH_PREFIX, CERT_SUBJECT_ALT_NAME, CERT_FETCH_RETRIES,
+            CERT_FETCH_INITIAL_BACKOFF_MS, CERT_FETCH_MAX_BACKOFF_MS, CERT_FETCH_CONNECT_TIMEOUT_MS,
+            CERT_FETCH_READ_TIMEOUT_MS, CERT_FETCH_TOTAL_BUDGET_MS, CERT_FETCH_WAIT_TIMEOUT_MS,
+            CERT_CACHE_MAX_ENTRIES, CERTIFICATE_STORE_DIR,
+            PREWARM_CERT_URLS, REPLAY_PROTECTION, REPLAY_CACHE_MAX_ENTRIES, MAX_SIGNATURE_LENGTH, MAX_CERT_URL_LENGTH,
+            TIMESTAMP_TOLERANCE_SECONDS, TIMESTAMP_FUTURE_TOLERANCE_SECONDS};
+
+    private static final String DEFAULT_CERT_URL_HOST = CertificateUrlPolicy.ALEXA_HOST_NAME;
+    private static final String DEFAULT_CERT_URL_PATH_PREFIX = CertificateUrlPolicy.ALEXA_PATH_PREFIX;
+    private static final String DEFAULT_CERT_SUBJECT_ALT_NAME = "echo-api.amazon.com";
+    private static final int DEFAULT_CERT_FETCH_RETRIES = 5;
+    private static final int DEFAULT_CERT_FETCH_INITIAL_BACKOFF_MS = 100;
+    private static final int DEFAULT_CERT_FETCH_MAX_BACKOFF_MS = 2000;
+    private static final int DEFAULT_CERT_FETCH_CONNECT_TIMEOUT_MS = 1000;
+    private static final int DEFAULT_CERT_FETCH_READ_TIMEOUT_MS = 2000;
+    private static final int DEFAULT_CERT_FETCH_TOTAL_BUDGET_MS = 10000;
+    private static final int DEFAULT_CERT_FETCH_WAIT_TIMEOUT_MS = 3000;
+    private static final int DEFAULT_CERT_CACHE_MAX_ENTRIES = 64;
+    private static final int DEFAULT_TIMESTAMP_TOLERANCE_SECONDS = 150;
+    private static final int DEFAULT_MAX_SIGNATURE_LENGTH = 2048;
+    private static final int DEFAULT_MAX_CERT_URL_LENGTH = 1024;
+    private static final int DEFAULT_REPLAY_CACHE_MAX_ENTRIES = 100000;
+    private static final int REPLAY_CACHE_STRIPES = 16;
+
+    private static final int CERT_FETCH_MAX_BODY_BYTES = 64 * 1024;
+    private static final int CERT_FETCH_THREADS = 2;
+    private static final long CERT_FETCH_FAILURE_TTL_MS = 30000L;
+    private static final long CERT_REFRESH_AHEAD_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long CERT_REFRESH_TTL_MS = TimeUnit.HOURS.toMillis(12);
+    private static final long CERT_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long CERT_CACHE_MAX_ENCODED_BYTES = 1024L * 1024L;
+
+    private static final ScheduledExecutorService CERT_FETCH_EXECUTOR = Executors.newScheduledThreadPool(CERT_FETCH_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "alexa-verifier-cert-fetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // keyed by the policy properties only; a deployment has a handful of distinct sets
+    private static final ConcurrentMap<Map<String, String>, VerifierPolicy> POLICIES = new ConcurrentHashMap<>();
+
+    private final Map<String, String> properties;
+    private final CertificateUrlPolicy certificateUrlPolicy;
+    private final CertificateChainVerifier chainVerifier;
+    private final CertificateCache certificateCache;
+    private final VerifierMetrics metrics;
+    private final CertificateFetcher certificateFetcher;
+    private final CertificateDiskStore certificateStore;
+    private final RequestVerifier requestVerifier;
+    private final String objectName;
+
+    private VerifierPolicy(final Map<String, String> properties, final String certificateUrlProtocol,
+                           final boolean defaultPortOnly, final X509TrustManager trustManager,
+                           final String objectName) {
+        this.properties = properties;
+        this.certificateUrlPolicy = new CertificateUrlPolicy(certificateUrlProtocol,
+                properties.getOrDefault(CERT_URL_HOST, DEFAULT_CERT_URL_HOST),
+                properties.getOrDefault(CERT_URL_PATH_PREFIX, DEFAULT_CERT_URL_PATH_PREFIX), defaultPortOnly);
+        this.chainVerifier = new CertificateChainVerifier(trustManager,
+                properties.getOrDefault(CERT_SUBJECT_ALT_NAME, DEFAULT_CERT_SUBJECT_ALT_NAME));
+        this.certificateCache = new CertificateCache(this::retrieveAndVerifyCertificateChain, CERT_FETCH_EXECUTOR,
+                parsePositiveInt(properties.get(CERT_FETCH_WAIT_TIMEOUT_MS), DEFAULT_CERT_FETCH_WAIT_TIMEOUT_MS),
+                CERT_FETCH_FAILURE_TTL_MS,
+                CERT_REFRESH_AHEAD_MS, CERT_REFRESH_TTL_MS, CERT_REFRESH_INTERVAL_MS,
+                parsePositiveInt(properties.get(CERT_CACHE_MAX_ENTRIES), DEFAULT_CERT_CACHE_MAX_ENTRIES),
+                CERT_CACHE_MAX_ENCODED_BYTES);
+
+        long pastToleranceMs = TimeUnit.SECONDS.toMillis(
+                parsePositiveInt(properties.get(TIMESTAMP_TOLERANCE_SECONDS), DEFAULT_TIMESTAMP_TOLERANCE_SECONDS));
+        long futureToleranceMs = TimeUnit.SECONDS.toMillis(
+                parsePositiveInt(properties.get(TIMESTAMP_FUTURE_TOLERANCE_SECONDS), DEFAULT_TIMESTAMP_TOLERANCE_SECONDS));
+        // a request stays acceptable from futureTolerance before its timestamp to pastTolerance after it
+        ReplayGuard replayGuard = "true".equalsIgnoreCase(properties.get(REPLAY_PROTECTION))
+                ? new ReplayGuard(pastToleranceMs + futureToleranceMs,
+                        parsePositiveInt(properties.get(REPLAY_CACHE_MAX_ENTRIES), DEFAULT_REPLAY_CACHE_MAX_ENTRIES),
+                        REPLAY_CACHE_STRIPES)
+                : null;
+        this.metrics = new VerifierMetrics(certificateCache, replayGuard);
+        this.certificateFetcher = new CertificateFetcher(
+                new UrlConnectionCertificateHttpClient(
+                        parsePositiveInt(properties.get(CERT_FETCH_CONNECT_TIMEOUT_MS), DEFAULT_CERT_FETCH_CONNECT_TIMEOUT_MS),
+                        parsePositiveInt(properties.get(CERT_FETCH_READ_TIMEOUT_MS), DEFAULT_CERT_FETCH_READ_TIMEOUT_MS),
+                        CERT_FETCH_MAX_BODY_BYTES),
+                chainVerifier,
+                parseNonNegativeInt(properties.get(CERT_FETCH_RETRIES), DEFAULT_CERT_FETCH_RETRIES),
+                parsePositiveInt(properties.get(CERT_FETCH_INITIAL_BACKOFF_MS), DEFAULT_CERT_FETCH_INITIAL_BACKOFF_MS),
+                parsePositiveInt(properties.get(CERT_FETCH_MAX_BACKOFF_MS), DEFAULT_CERT_FETCH_MAX_BACKOFF_MS),
+                parsePositiveInt(properties.get(CERT_FETCH_TOTAL_BUDGET_MS), DEFAULT_CERT_FETCH_TOTAL_BUDGET_MS),
+                metrics);
+
+        this.requestVerifier = new RequestVerifier(certificateUrlPolicy, certificateCache, metrics, replayGuard,
+                parsePositiveInt(properties.get(MAX_SIGNATURE_LENGTH), DEFAULT_MAX_SIGNATURE_LENGTH),
+                parsePositiveInt(properties.get(MAX_CERT_URL_LENGTH), DEFAULT_MAX_CERT_URL_LENGTH),
+                pastToleranceMs, futureToleranceMs);
+
+        String certificateStoreDir = properties.get(CERTIFICATE_STORE_DIR);
+        this.certificateStore = certificateStoreDir == null ? null : new CertificateDiskStore(Paths.get(certificateStoreDir));
+        restoreStoredCertificates();
+
+        String prewarmCertUrls = properties.get(PREWARM_CERT_URLS);
+        if (prewarmCertUrls != null) {
+            prewarm(prewarmCertUrls);
+        }
+
+        this.objectName = objectName == null ? null : metrics.registerMBean(objectName);
+    }
+
+    /**
+     * The policy for the properties of a callout; only the policy properties are looked at, and
+     * every distinct set of them is built once.
+     *
+     * @throws IllegalArgumentException when the {@code policy-name} is already used by a policy
+     *         with different properties in this classloader, i.e. in the same proxy revision
+     */
+    static VerifierPolicy forProperties(final Map<?, ?> properties) {
+        Map<String, String> policyProperties = policyProperties(properties);
+        VerifierPolicy policy = POLICIES.get(policyProperties);
+        return policy != null ? policy : register(policyProperties);
+    }
+
+    /**
+     * A policy of its own for the properties, not shared with callouts and not registered with
+     * JMX, that downloads certificates over the given protocol and trusts the given trust manager
+     * (the JVM trust store when null). For batch runs, and for tests against a local certificate
+     * server; the caller closes it.
+     */
+    static VerifierPolicy unshared(final Map<?, ?> properties, final String certificateUrlProtocol,
+                                   final boolean defaultPortOnly, final X509TrustManager trustManager) {
+        return new VerifierPolicy(policyProperties(properties), certificateUrlProtocol, defaultPortOnly,
+                trustManager, null);
+    }
+
+    // under the class lock, so that two property sets can never claim the same policy name
+    private static synchronized VerifierPolicy register(final Map<String, String> properties) {
+        VerifierPolicy policy = POLICIES.get(properties);
+        if (policy != null) {
+            return policy;
+        }
+        String policyName = properties.get(POLICY_NAME);
+        String objectName;
+        if (properties.isEmpty()) {
+            objectName = VerifierMetrics.OBJECT_NAME;
+        } else if (policyName != null) {
+            if (isPolicyNameTaken(policyName)) {
+                throw new IllegalArgumentException(String.format(
+                        "Policy name [%s] is already used by callouts with different policy properties",
+                        policyName));
+            }
+            objectName = VerifierMetrics.OBJECT_NAME + "-" + policyName.replaceAll("[^A-Za-z0-9._-]", "_");
+        } else {
+            // named after the properties, so the bean keeps its name across restarts and deployments
+            objectName = VerifierMetrics.OBJECT_NAME + "-policy-"
+                    + Integer.toHexString(new TreeMap<>(properties).toString().hashCode());
+        }
+        // POLICIES only knows this classloader; a name held by another deployment, or by a policy
+        // here whose name or hash comes out the same, is resolved when the bean is registered
+        policy = new VerifierPolicy(properties, "https", true, null, objectName);
+        POLICIES.put(properties, policy);
+        return policy;
+    }
+
+    private static boolean isPolicyNameTaken(final String policyName) {
+        for (Map<String, String> properties : POLICIES.keySet()) {
+            if (policyName.equals(properties.get(POLICY_NAME))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> policyProperties(final Map<?, ?> properties) {
+        Map<String, String> policyProperties = new HashMap<>();
+        for (String name : PROPERTY_NAMES) {
+            Object value = properties.get(name);
+            if (value instanceof String && !((String) value).trim().isEmpty()) {
+                policyProperties.put(name, ((String) value).trim());
+            }
+        }
+        return Collections.unmodifiableMap(policyProperties);
+    }
+
+    /**
+     * Stops the background refresh of the policy's certificates and unregisters its metrics bean.
+     * A shared policy is also dropped, so the next callout with the same properties builds a new
+     * one; callouts that still hold it keep verifying, with certificates that are downloaded
+     * again only once they expire.
+     */
+    @Override
+    public void close() {
+        POLICIES.remove(properties, this);
+        certificateCache.close();
+        if (objectName != null) {
+            metrics.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * The policy of a callout that sets none of the policy properties.
+     */
+    static VerifierPolicy defaultPolicy() {
+        return forProperties(Collections.emptyMap());
+    }
+
+    RequestVerifier requestVerifier() {
+        return requestVerifier;
+    }
+
+    VerifierMetrics metrics() {
+        return metrics;
+    }
+
+    CertificateCache certificateCache() {
+        return certificateCache;
+    }
+
+    /**
+     * The name the metrics MXBean is registered under, or null for an {@link #unshared} policy
+     * and when registration failed.
+     */
+    String objectName() {
+        return objectName;
+    }
+
+    private static int parsePositiveInt(final String value, final int defaultValue) {
+        int parsed = parseNonNegativeInt(value, defaultValue);
+        return parsed > 0 ? parsed : defaultValue;
+    }
+
+    private static int parseNonNegativeInt(final String value, final int defaultValue) {
+        if (value != null) {
+            try {
+                int parsed = Integer.parseInt(value);
+                if (parsed >= 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                //IGNORED, fall back to the default
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Restores the chains held by the on-disk certificate store into the certificate cache. Every
+     * restored chain is verified again before it is used, so the first request after a restart is
+     * served from memory only if the stored chain is still valid and trusted. The chains keep the
+     * validators they were downloaded with, so their first refresh is a conditional request.
+     */
+    private void restoreStoredCertificates() {
+        if (certificateStore == null) {
+            return;
+        }
+        for (Map.Entry<String, CertificateDiskStore.StoredChain> stored : certificateStore.load().entrySet()) {
+            try {
+                String certificateCacheKey = certificateUrlPolicy.cacheKey(stored.getKey());
+                CertificateDiskStore.StoredChain storedChain = stored.getValue();
+                certificateCache.preload(certificateCacheKey, chainVerifier.verify(storedChain.certificates)
+                        .withValidators(storedChain.etag, storedChain.lastModified));
+            } catch (CertificateException e) {
+                //IGNORED, the chain is downloaded again on first use
+            }
+        }
+    }
+
+    /**
+     * Starts loading the listed certificate URLs in the background, so that the first request
+     * for each of them does not pay for the download and verification. An entry is either a URL
+     * or {@code url=resource}, where the resource is a PEM chain on the callout's classpath that
+     * is used, once verified, instead of downloading the URL. Entries are separated by commas;
+     * URLs that fail the certificate URL checks are skipped.
+     */
+    private void prewarm(final String prewarmCertUrls) {
+        for (String entry : prewarmCertUrls.split(",")) {
+            int separator = entry.indexOf('=');
+            String signingCertificateChainUrl = (separator < 0 ? entry : entry.substring(0, separator)).trim();
+            final String resource = separator < 0 ? null : entry.substring(separator + 1).trim();
+            if (signingCertificateChainUrl.isEmpty()) {
+                continue;
+            }
+            try {
+                certificateCache.warmUp(
+                        certificateUrlPolicy.cacheKey(signingCertificateChainUrl),
+                        resource == null || resource.isEmpty() ? null : () -> chainVerifier.verify(readChainResource(resource)));
+            } catch (CertificateException e) {
+                //IGNORED, requests naming this URL are rejected anyway
+            }
+        }
+    }
+
+    private static X509Certificate[] readChainResource(final String resource) throws IOException, CertificateException {
+        InputStream in = VerifierPolicy.class.getClassLoader().getResourceAsStream(
+                resource.startsWith("/") ? resource.substring(1) : resource);
+        if (in == null) {
+            throw new IOException("Certificate resource not found: " + resource);
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Collection<X509Certificate> certificateChain =
+                    (Collection<X509Certificate>) CertificateFactory.getInstance("X.509").generateCertificates(in);
+            return certificateChain.toArray(new X509Certificate[certificateChain.size()]);
+        } finally {
+            try{in.close();} catch (IOException ex){//IGNORED
+            }
+        }
+    }
+
+    private VerifiedCertificateChain retrieveAndVerifyCertificateChain(final String signingCertificateChainUrl,
+            final VerifiedCertificateChain previous) throws CertificateException {
+        VerifiedCertificateChain verifiedChain = certificateFetcher.fetch(
+                certificateUrlPolicy.verify(signingCertificateChainUrl), previous);
+        // a revalidated chain, or the same bytes served with the same validators, is already stored
+        if (certificateStore != null && (previous == null
+                || !previous.fingerprint().equals(verifiedChain.fingerprint())
+                || !Objects.equals(previous.etag(), verifiedChain.etag())
+                || !Objects.equals(previous.lastModified(), verifiedChain.lastModified()))) {
+            try {
+                certificateStore.save(signingCertificateChainUrl, verifiedChain);
+            } catch (IOException | CertificateException e) {
+                //IGNORED, the store only speeds up warm starts
+            }
+        }
+        return verifiedChain;
+    }
+}
@@ -2,6 +2,13 @@ package com.google.apigee.edgecallouts.util;
 
 import com.apigee.flow.message.MessageContext;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Opt-in verbose channel: writes {@code <prefix>.debug.<name>} flow variables. Only create one
+ * when debugging is enabled, everything it records is rendered as text.
+ */
 public class Debug {
     private MessageContext msgCtx;
     private String prefix;
@@ -14,4 +21,10 @@ public class Debug {
     public void setVar(String name, String value) {
         msgCtx.setVariable(prefix + ".debug."+name, value);
     }
+
+    public void setStackTrace(String name, Throwable throwable) {
+        StringWriter sw = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(sw));
+        setVar(name, sw.toString());
+    }
 }
\ No newline at end of file
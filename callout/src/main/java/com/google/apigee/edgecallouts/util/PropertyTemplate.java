@@ -0,0 +1,103 @@
+package com.google.apigee.edgecallouts.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.apigee.flow.message.MessageContext;
+
+/**
+ * A callout property value parsed once into literal segments and {@code {variable}} references.
+ *
+ * Resolving a template needs no regular expression and, when the value has no references at all
+ * (the common case for the callout properties), returns the original String without allocating.
+ * A value that is exactly one reference resolves to the variable's String value, or null when it
+ * is unset; references embedded in text resolve to an empty String when unset, like
+ * {@link VarResolver#replaceAllRefs(String)}.
+ */
+public final class PropertyTemplate {
+
+    private static final PropertyTemplate NULL = new PropertyTemplate(null, null, null, 0);
+
+    private final String constant;
+    private final String[] literals;
+    private final String[] references;
+    private final int literalLength;
+
+    private PropertyTemplate(String constant, String[] literals, String[] references, int literalLength) {
+        this.constant = constant;
+        this.literals = literals;
+        this.references = references;
+        this.literalLength = literalLength;
+    }
+
+    public static PropertyTemplate compile(final Object value) {
+        if (value == null) {
+            return NULL;
+        }
+        String text = value.toString();
+
+        List<String> literals = new ArrayList<>();
+        List<String> references = new ArrayList<>();
+        int literalLength = 0;
+        int segmentStart = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            int end = referenceEnd(text, pos);
+            if (end < 0) {
+                pos++;
+                continue;
+            }
+            String literal = text.substring(segmentStart, pos);
+            literals.add(literal);
+            literalLength += literal.length();
+            references.add(text.substring(pos + 1, end));
+            pos = end + 1;
+            segmentStart = pos;
+        }
+
+        if (references.isEmpty()) {
+            return new PropertyTemplate(text, null, null, text.length());
+        }
+        String tail = text.substring(segmentStart);
+        literals.add(tail);
+        literalLength += tail.length();
+        return new PropertyTemplate(null, literals.toArray(new String[0]), references.toArray(new String[0]),
+                literalLength);
+    }
+
+    // index of the closing brace when a reference ({[a-zA-Z0-9-.]+}) starts at pos, -1 otherwise
+    private static int referenceEnd(final String text, final int pos) {
+        if (text.charAt(pos) != '{') {
+            return -1;
+        }
+        int i = pos + 1;
+        while (i < text.length() && isReferenceChar(text.charAt(i))) {
+            i++;
+        }
+        return (i > pos + 1 && i < text.length() && text.charAt(i) == '}') ? i : -1;
+    }
+
+    private static boolean isReferenceChar(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.';
+    }
+
+    public String resolve(final MessageContext msgCtx) {
+        if (references == null) {
+            return constant;
+        }
+        if (references.length == 1 && literalLength == 0) {
+            return stringValue(msgCtx.getVariable(references[0]), null);
+        }
+        StringBuilder sb = new StringBuilder(literalLength + 16 * references.length);
+        for (int i = 0; i < references.length; i++) {
+            sb.append(literals[i]);
+            sb.append(stringValue(msgCtx.getVariable(references[i]), ""));
+        }
+        sb.append(literals[references.length]);
+        return sb.toString();
+    }
+
+    private static String stringValue(final Object value, final String defaultValue) {
+        return value instanceof String ? (String) value : defaultValue;
+    }
+}
@@ -0,0 +1,213 @@
+package com.google.apigee.edgecallouts.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming scanner that picks the {@code request.timestamp} string out of a skill request body
+ * while the bytes go by, e.g. on their way into the signature digest.
+ *
+ * It is a byte-level state machine, not a JSON parser: it only tracks strings, object/array
+ * nesting and which string is a key, which is enough to find the one member it is after without
+ * building a tree or decoding the rest of the document. Like most JSON readers, the last
+ * occurrence of a duplicated member wins. A timestamp containing escapes or longer than any
+ * ISO-8601 timestamp is treated as absent.
+ */
+public final class RequestTimestampScanner {
+
+    private static final byte[] REQUEST = {'r', 'e', 'q', 'u', 'e', 's', 't'};
+    private static final byte[] TIMESTAMP = {'t', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p'};
+    private static final int MAX_TIMESTAMP_LENGTH = 40;
+
+    private final char[] timestamp = new char[MAX_TIMESTAMP_LENGTH];
+    private int timestampLength = -1;
+
+    private int depth;
+    // bit n is set while the container at depth n (up to 63) is an array
+    private long arrays;
+    private boolean inRequest;
+    private boolean expectKey;
+
+    private boolean inString;
+    private boolean escaped;
+    private boolean inKey;
+    private byte[] keyTarget;
+    private int keyMatched;
+    private byte[] lastKey;
+    private boolean capturing;
+    private int captured;
+
+    /**
+     * Feeds the next chunk of the body.
+     */
+    public void update(final byte[] bytes, final int offset, final int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            // most of a body is string content nobody looks at, run through it to the next quote
+            if (inString && !escaped && !inKey && !capturing) {
+                while (i < end && bytes[i] != '"' && bytes[i] != '\\') {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            next(bytes[i++]);
+        }
+    }
+
+    private void next(final byte b) {
+        if (inString) {
+            string(b);
+            return;
+        }
+        switch (b) {
+            case '"':
+                startString();
+                break;
+            case '{':
+                // the value of the top level "request" member opens the object we look into
+                if (depth == 1 && lastKey == REQUEST) {
+                    inRequest = true;
+                }
+                depth++;
+                markContainer(false);
+                expectKey = true;
+                lastKey = null;
+                break;
+            case '[':
+                depth++;
+                markContainer(true);
+                expectKey = false;
+                lastKey = null;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                if (depth < 2) {
+                    inRequest = false;
+                }
+                expectKey = false;
+                lastKey = null;
+                break;
+            case ',':
+                // only object members are separated by keys, array elements never are
+                expectKey = depth >= 64 || (arrays & (1L << depth)) == 0;
+                lastKey = null;
+                break;
+            case ':':
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+                break;
+            default:
+                // numbers and literals end the pending member
+                lastKey = null;
+                break;
+        }
+    }
+
+    /**
+     * Returns a stream that feeds everything read through it to this scanner.
+     */
+    public InputStream scanning(final InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    next((byte) b);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    update(b, off, read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                throw new IOException("skipping would bypass the timestamp scanner");
+            }
+        };
+    }
+
+    /**
+     * The {@code request.timestamp} value seen so far, or null when there is none.
+     */
+    public String timestamp() {
+        return timestampLength < 0 ? null : new String(timestamp, 0, timestampLength);
+    }
+
+    private void markContainer(final boolean array) {
+        if (depth < 64) {
+            arrays = array ? arrays | (1L << depth) : arrays & ~(1L << depth);
+        }
+    }
+
+    private void startString() {
+        inString = true;
+        escaped = false;
+        if (expectKey) {
+            inKey = true;
+            keyTarget = depth == 1 ? REQUEST : (depth == 2 && inRequest ? TIMESTAMP : null);
+            keyMatched = 0;
+            expectKey = false;
+        } else {
+            inKey = false;
+            capturing = lastKey == TIMESTAMP;
+            captured = 0;
+            lastKey = null;
+        }
+    }
+
+    private void string(final byte b) {
+        if (escaped) {
+            escaped = false;
+            keyTarget = null;
+            captured = -1;
+            return;
+        }
+        if (b == '\\') {
+            escaped = true;
+            return;
+        }
+        if (b == '"') {
+            endString();
+            return;
+        }
+        if (inKey) {
+            if (keyTarget != null) {
+                if (keyMatched < keyTarget.length && keyTarget[keyMatched] == b) {
+                    keyMatched++;
+                } else {
+                    keyTarget = null;
+                }
+            }
+        } else if (capturing && captured >= 0) {
+            if (captured < MAX_TIMESTAMP_LENGTH) {
+                timestamp[captured++] = (char) (b & 0xff);
+            } else {
+                captured = -1;
+            }
+        }
+    }
+
+    private void endString() {
+        inString = false;
+        if (inKey) {
+            lastKey = keyTarget != null && keyMatched == keyTarget.length ? keyTarget : null;
+        } else if (capturing) {
+            timestampLength = captured;
+            capturing = false;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.google.apigee.edgecallouts.util;
+
+import java.text.ParseException;
+
+/**
+ * Allocation-free parser for the ISO-8601 timestamps found in Alexa request bodies, e.g.
+ * {@code 2022-08-05T18:38:06Z}.
+ *
+ * Accepts {@code yyyy-MM-dd'T'HH:mm:ss}, an optional fraction of a second and a zone designator
+ * of {@code Z}, {@code +hh}, {@code +hhmm} or {@code +hh:mm} (the forms the previous
+ * {@code SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX")} accepted). Fields are range checked.
+ */
+public final class TimestampParser {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private TimestampParser() {
+    }
+
+    public static long parseEpochMillis(final CharSequence text) throws ParseException {
+        if (text == null) {
+            throw new ParseException("Missing timestamp", 0);
+        }
+        int length = text.length();
+        if (length < 20) {
+            throw new ParseException("Timestamp is too short", length);
+        }
+
+        int year = digits(text, 0, 4);
+        expect(text, 4, '-');
+        int month = digits(text, 5, 2);
+        expect(text, 7, '-');
+        int day = digits(text, 8, 2);
+        expect(text, 10, 'T');
+        int hour = digits(text, 11, 2);
+        expect(text, 13, ':');
+        int minute = digits(text, 14, 2);
+        expect(text, 16, ':');
+        int second = digits(text, 17, 2);
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw new ParseException("Timestamp field out of range", 0);
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (text.charAt(pos) == '.') {
+            pos++;
+            int start = pos;
+            int scale = 100;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                millis += (text.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                throw new ParseException("Empty fraction of a second", pos);
+            }
+        }
+
+        int offsetSeconds = offsetSeconds(text, pos, length);
+
+        long epochSeconds = epochDay(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSeconds * MILLIS_PER_SECOND + millis;
+    }
+
+    private static int offsetSeconds(final CharSequence text, final int pos, final int length) throws ParseException {
+        if (pos >= length) {
+            throw new ParseException("Missing zone designator", pos);
+        }
+        char designator = text.charAt(pos);
+        if (designator == 'Z') {
+            if (pos + 1 != length) {
+                throw new ParseException("Unexpected trailing characters", pos + 1);
+            }
+            return 0;
+        }
+        if (designator != '+' && designator != '-') {
+            throw new ParseException("Invalid zone designator", pos);
+        }
+        int remaining = length - pos - 1;
+        int hours;
+        int minutes = 0;
+        if (remaining == 2) {
+            hours = digits(text, pos + 1, 2);
+        } else if (remaining == 4) {
+            hours = digits(text, pos + 1, 2);
+            minutes = digits(text, pos + 3, 2);
+        } else if (remaining == 5) {
+            hours = digits(text, pos + 1, 2);
+            expect(text, pos + 3, ':');
+            minutes = digits(text, pos + 4, 2);
+        } else {
+            throw new ParseException("Invalid zone offset", pos);
+        }
+        if (hours > 23 || minutes > 59) {
+            throw new ParseException("Zone offset out of range", pos);
+        }
+        int offset = hours * 3600 + minutes * 60;
+        return designator == '-' ? -offset : offset;
+    }
+
+    private static int digits(final CharSequence text, final int pos, final int count) throws ParseException {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("Expected a digit", i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(final CharSequence text, final int pos, final char expected) throws ParseException {
+        if (text.charAt(pos) != expected) {
+            throw new ParseException("Expected '" + expected + "'", pos);
+        }
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLeapYear(final int year) {
+        return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // days since 1970-01-01 in the proleptic Gregorian calendar
+    private static long epochDay(final int year, final int month, final int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int monthIndex = month > 2 ? month - 3 : month + 9;
+        int dayOfYear = (153 * monthIndex + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+}
@@ -3,8 +3,6 @@ package com.google.apigee.edgecallouts.util;
 import com.apigee.flow.message.MessageContext;
 
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class VarResolver {
     MessageContext msgCtx;
@@ -95,24 +93,7 @@ public class VarResolver {
     }
 
     public  String replaceAllRefs(String propValue) {
-        String rx = "(\\{[a-zA-Z0-9-.]+\\})";
-
-        StringBuffer sb = new StringBuffer();
-        Pattern p = Pattern.compile(rx);
-        Matcher m = p.matcher(propValue);
-
-        while (m.find())
-        {
-            String varName =  trimFirstAndLast(m.group(1));
-
-            String replacement = getVar(varName, String.class, "");
-            if (replacement != null){
-                m.appendReplacement(sb, replacement);
-            }
-        }
-        m.appendTail(sb);
-
-        return sb.toString();
+        return PropertyTemplate.compile(propValue).resolve(msgCtx);
     }
 
     public String getProp(String propName) {
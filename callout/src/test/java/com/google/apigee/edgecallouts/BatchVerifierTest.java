@@ -0,0 +1,173 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchVerifierTest {
+
+    private static TestCertificates certificates;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalCertificateServer server;
+    private OfflineVerifier offline;
+    private String certificateUrl;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new LocalCertificateServer();
+        certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+        offline = new OfflineVerifier(certificates.trustManager());
+    }
+
+    @After
+    public void stopServer() {
+        offline.close();
+        server.close();
+    }
+
+    @Test
+    public void verifiesCapturedTrafficLineByLine() throws Exception {
+        long capturedAt = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+        String timestamp = SkillRequests.timestamp(capturedAt);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            byte[] body = SkillRequests.body(1024, timestamp, "amzn1.echo-api.request." + i);
+            byte[] signed = i % 10 == 3 ? SkillRequests.body(1024, timestamp, "other") : body;
+            input.append(record(null, signed, body, SkillRequests.timestamp(capturedAt + 1000), i % 2 == 0))
+                    .append('\n');
+        }
+        input.append('\n').append("{\"signature\": \"abc\"").append('\n');
+
+        StringWriter output = new StringWriter();
+        BatchVerifier.Summary summary = new BatchVerifier(offline.verifier, 8)
+                .verifyLines(new StringReader(input.toString()), output);
+
+        assertEquals(201, summary.recordCount());
+        assertEquals(180, summary.verifiedCount());
+        assertEquals(20, summary.rejectedCount(FailureReason.SIGNATURE_MISMATCH));
+        assertEquals(1, summary.invalidCount());
+        assertFalse(summary.allVerified());
+        assertEquals("all workers share one certificate download", 1, server.requestCount());
+
+        List<String> results = Arrays.asList(output.toString().split("\n"));
+        assertEquals(201, results.size());
+        assertTrue(results.contains("{\"id\":\"4\",\"verified\":false,\"error\":\"signature_mismatch\","
+                + "\"message\":\"Failed to verify the signature/certificate for the provided skill request\","
+                + "\"micros\":" + micros(results, "4") + "}"));
+        assertTrue(results.stream().anyMatch(r -> r.startsWith("{\"id\":\"202\",\"verified\":false,"
+                + "\"error\":\"invalid_record\"")));
+    }
+
+    @Test
+    public void checksTimestampsAgainstTheCaptureTime() throws Exception {
+        long capturedAt = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        byte[] body = SkillRequests.body(1024, SkillRequests.timestamp(capturedAt));
+        String input = record("late", body, body, SkillRequests.timestamp(capturedAt + TimeUnit.MINUTES.toMillis(5)), true)
+                + "\n" + record("live", body, body, null, true);
+
+        BatchVerifier.Summary summary = new BatchVerifier(offline.verifier, 2)
+                .verifyLines(new StringReader(input), new StringWriter());
+
+        assertEquals(0, summary.verifiedCount());
+        assertEquals(2, summary.rejectedCount(FailureReason.TIMESTAMP_OUT_OF_WINDOW));
+    }
+
+    @Test
+    public void verifiesOneRecordPerFile() throws Exception {
+        long now = System.currentTimeMillis();
+        Path directory = folder.newFolder("captured").toPath();
+        for (int i = 0; i < 20; i++) {
+            byte[] body = SkillRequests.body(2048, SkillRequests.timestamp(now), "amzn1.echo-api.request." + i);
+            Files.write(directory.resolve("request-" + i + ".json"),
+                    record(null, body, body, null, false).getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(directory.resolve(".index"), new byte[]{1});
+
+        StringWriter output = new StringWriter();
+        BatchVerifier.Summary summary = new BatchVerifier(offline.verifier, 4).verifyDirectory(directory, output);
+
+        assertTrue(summary.toString(), summary.allVerified());
+        assertEquals(20, summary.recordCount());
+        assertTrue(output.toString().contains("{\"id\":\"request-7.json\",\"verified\":true,\"micros\":"));
+    }
+
+    @Test
+    public void reportsErrorsAsInternalErrorRecords() throws Exception {
+        long now = System.currentTimeMillis();
+        Path directory = folder.newFolder("oversized").toPath();
+        byte[] body = SkillRequests.body(1024, SkillRequests.timestamp(now));
+        Files.write(directory.resolve("request.json"), record(null, body, body, null, false)
+                .getBytes(StandardCharsets.UTF_8));
+        // too large for one array, reading it throws an OutOfMemoryError without allocating it
+        try (RandomAccessFile oversized = new RandomAccessFile(directory.resolve("oversized.json").toFile(), "rw")) {
+            oversized.setLength(Integer.MAX_VALUE + 1L);
+        }
+
+        StringWriter output = new StringWriter();
+        BatchVerifier.Summary summary = new BatchVerifier(offline.verifier, 2).verifyDirectory(directory, output);
+
+        assertEquals(2, summary.recordCount());
+        assertEquals(1, summary.verifiedCount());
+        assertEquals(1, summary.rejectedCount(FailureReason.INTERNAL_ERROR));
+        assertTrue(output.toString(), output.toString().contains("{\"id\":\"oversized.json\",\"verified\":false,"
+                + "\"error\":\"internal_error\",\"message\":\"java.lang.OutOfMemoryError"));
+    }
+
+    private String record(final String id, final byte[] signed, final byte[] body, final String receivedAt,
+                          final boolean base64Body) throws Exception {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("id", id);
+        fields.put("signatureCertChainUrl", certificateUrl);
+        fields.put("signature", Base64.getEncoder().encodeToString(certificates.sign(signed)));
+        fields.put(base64Body ? "bodyBase64" : "body", base64Body
+                ? Base64.getEncoder().encodeToString(body) : new String(body, StandardCharsets.UTF_8));
+        fields.put("receivedAt", receivedAt);
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (json.length() > 1) {
+                json.append(", ");
+            }
+            BatchVerifier.appendJsonString(json, field.getKey());
+            json.append(": ");
+            BatchVerifier.appendJsonString(json, field.getValue());
+        }
+        return json.append('}').toString();
+    }
+
+    private static String micros(final List<String> results, final String id) {
+        for (String result : results) {
+            if (result.startsWith("{\"id\":\"" + id + "\"")) {
+                return result.substring(result.lastIndexOf(':') + 1, result.length() - 1);
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,129 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CertificateCacheTest {
+
+    private static final String URL = "https://s3.amazonaws.com/echo.api/echo-api-cert.pem";
+    private static final long REFRESH_INTERVAL_MS = 50L;
+
+    private static VerifiedCertificateChain chain;
+
+    private final BlockingQueue<VerifiedCertificateChain> revalidated = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        TestCertificates certificates = TestCertificates.generate();
+        chain = new VerifiedCertificateChain(certificates.chain(),
+                CertificateChainVerifier.fingerprint(certificates.chain()));
+    }
+
+    @Before
+    public void startExecutor() {
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void refreshesAheadOfNotAfter() throws Exception {
+        long untilNotAfter = chain.signingCertificate().getNotAfter().getTime() - System.currentTimeMillis();
+        // due a second from now, long before the refresh TTL
+        try (CertificateCache cache = cache(untilNotAfter - 1000L, TimeUnit.HOURS.toMillis(12))) {
+            cache.preload(URL, chain);
+
+            assertNull("not due yet", revalidated.poll(300, TimeUnit.MILLISECONDS));
+            assertSame("the cached chain is revalidated", chain, revalidated.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void refreshesAfterTheTtl() throws Exception {
+        try (CertificateCache cache = cache(TimeUnit.HOURS.toMillis(1), 1000L)) {
+            cache.preload(URL, chain);
+
+            assertNull("not due yet", revalidated.poll(300, TimeUnit.MILLISECONDS));
+            assertSame("the cached chain is revalidated", chain, revalidated.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void stopsRefreshingOnceClosed() throws Exception {
+        CertificateCache cache = cache(TimeUnit.HOURS.toMillis(1), 200L);
+        cache.preload(URL, chain);
+        cache.close();
+
+        assertNull(revalidated.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntryBeyondMaxEntries() throws Exception {
+        try (CertificateCache cache = boundedCache(2, 1024L * 1024L)) {
+            assertLeastRecentlyUsedEvicted(cache);
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntryBeyondMaxEncodedBytes() throws Exception {
+        int chainBytes = 0;
+        for (X509Certificate certificate : chain.certificates()) {
+            chainBytes += certificate.getEncoded().length;
+        }
+        try (CertificateCache cache = boundedCache(64, 2L * chainBytes + chainBytes / 2)) {
+            assertLeastRecentlyUsedEvicted(cache);
+        }
+    }
+
+    // caches a and b, uses a, then caches c, which is one entry too many for the cache
+    private void assertLeastRecentlyUsedEvicted(final CertificateCache cache) throws Exception {
+        cache.preload(URL + "a", chain);
+        Thread.sleep(5);
+        cache.preload(URL + "b", chain);
+        Thread.sleep(5);
+        cache.get(URL + "a");
+        Thread.sleep(5);
+        cache.preload(URL + "c", chain);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        long misses = cache.missCount();
+        cache.get(URL + "a");
+        cache.get(URL + "c");
+        assertEquals("a and c are still cached", misses, cache.missCount());
+        cache.get(URL + "b");
+        assertEquals("b was evicted", misses + 1, cache.missCount());
+    }
+
+    private CertificateCache cache(final long refreshAheadMs, final long refreshTtlMs) {
+        return new CertificateCache(this::revalidate, executor, 1000L, 1000L, refreshAheadMs, refreshTtlMs,
+                REFRESH_INTERVAL_MS, 64, 1024L * 1024L);
+    }
+
+    private CertificateCache boundedCache(final int maxEntries, final long maxEncodedBytes) {
+        return new CertificateCache(this::revalidate, executor, 1000L, 1000L, TimeUnit.HOURS.toMillis(1),
+                TimeUnit.HOURS.toMillis(12), TimeUnit.MINUTES.toMillis(1), maxEntries, maxEncodedBytes);
+    }
+
+    private VerifiedCertificateChain revalidate(final String url, final VerifiedCertificateChain previous) {
+        revalidated.add(previous == null ? chain : previous);
+        return chain;
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CertificateDiskStoreTest {
+
+    private static final String URL = "https://s3.amazonaws.com/echo.api/echo-api-cert.pem";
+
+    private static TestCertificates certificates;
+    private static VerifiedCertificateChain chain;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+        chain = new VerifiedCertificateChain(certificates.chain(),
+                CertificateChainVerifier.fingerprint(certificates.chain()));
+    }
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = folder.newFolder("certificates").toPath();
+    }
+
+    @Test
+    public void storesChainsWithTheirValidators() throws Exception {
+        new CertificateDiskStore(directory).save(URL,
+                chain.withValidators("\"v1\"", "Fri, 05 Aug 2022 18:38:06 GMT"));
+
+        // a new store over the same directory, as after a restart
+        Map<String, CertificateDiskStore.StoredChain> stored = new CertificateDiskStore(directory).load();
+        assertEquals(1, stored.size());
+        assertArrayEquals(certificates.chain(), stored.get(URL).certificates);
+        assertEquals("\"v1\"", stored.get(URL).etag);
+        assertEquals("Fri, 05 Aug 2022 18:38:06 GMT", stored.get(URL).lastModified);
+
+        new CertificateDiskStore(directory).save(URL, chain);
+        stored = new CertificateDiskStore(directory).load();
+        assertNull("the entry was replaced", stored.get(URL).etag);
+        assertNull(stored.get(URL).lastModified);
+    }
+
+    @Test
+    public void replacesEntriesWithoutLeavingTemporaryFiles() throws Exception {
+        CertificateDiskStore store = new CertificateDiskStore(directory);
+        store.save(URL, chain);
+        store.save(URL, chain.withValidators("\"v2\"", null));
+        // what a write interrupted before its move leaves behind
+        Files.write(directory.resolve("interrupted.properties.tmp"), "url=x".getBytes(StandardCharsets.US_ASCII));
+
+        List<String> names = fileNames();
+        assertEquals(names.toString(), 3, names.size());
+        assertEquals(1, names.stream().filter(name -> name.endsWith(".pem")).count());
+        assertEquals(1, names.stream().filter(name -> name.endsWith(".properties")).count());
+        assertEquals("\"v2\"", store.load().get(URL).etag);
+    }
+
+    @Test
+    public void skipsDamagedEntries() throws Exception {
+        CertificateDiskStore store = new CertificateDiskStore(directory);
+        for (String name : new String[]{"garbage", "substituted", "incomplete", "intact"}) {
+            store.save(URL + name, chain);
+        }
+        Files.write(pem(URL + "garbage"), "-----BEGIN CERTIFICATE-----\nnot a certificate\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        Files.write(pem(URL + "substituted"), TestCertificates.generate().pem());
+        Properties incomplete = metadata(URL + "incomplete");
+        incomplete.remove("fingerprint");
+        store(URL + "incomplete", incomplete);
+
+        Map<String, CertificateDiskStore.StoredChain> stored = store.load();
+        assertEquals(stored.keySet().toString(), 1, stored.size());
+        assertArrayEquals(certificates.chain(), stored.get(URL + "intact").certificates);
+    }
+
+    @Test
+    public void deletesExpiredEntries() throws Exception {
+        CertificateDiskStore store = new CertificateDiskStore(directory);
+        store.save(URL, chain);
+        Properties expired = metadata(URL);
+        expired.setProperty("notAfter", Long.toString(System.currentTimeMillis() - 1000L));
+        store(URL, expired);
+
+        assertEquals(0, store.load().size());
+        assertEquals(0, fileNames().size());
+    }
+
+    @Test
+    public void restoresCertificatesAfterARestart() throws Exception {
+        try (LocalCertificateServer server = new LocalCertificateServer()) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            Map<String, String> properties = new HashMap<>();
+            properties.put("cert-url-host", InetAddress.getLoopbackAddress().getHostAddress());
+            properties.put("cert-url-path-prefix", LocalCertificateServer.PATH_PREFIX);
+            properties.put("certificate-store-dir", directory.toString());
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(1024, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            try (VerifierPolicy policy = VerifierPolicy.unshared(properties, "http", false,
+                    certificates.trustManager())) {
+                policy.requestVerifier().verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body));
+            }
+            assertEquals(1, server.requestCount());
+
+            try (VerifierPolicy restarted = VerifierPolicy.unshared(properties, "http", false,
+                    certificates.trustManager())) {
+                restarted.requestVerifier().verify(signature, certificateUrl, timestamp,
+                        OfflineVerifier.content(body));
+                assertEquals("served from the restored chain", 1, server.requestCount());
+                assertEquals(1, restarted.metrics().getCacheHitCount());
+            }
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    private Path metadataFile(final String url) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.properties")) {
+            for (Path file : files) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    Properties metadata = new Properties();
+                    metadata.load(in);
+                    if (url.equals(metadata.getProperty("url"))) {
+                        return file;
+                    }
+                }
+            }
+        }
+        throw new AssertionError("no entry for " + url);
+    }
+
+    private Path pem(final String url) throws IOException {
+        String name = metadataFile(url).getFileName().toString();
+        return directory.resolve(name.substring(0, name.length() - ".properties".length()) + ".pem");
+    }
+
+    private Properties metadata(final String url) throws IOException {
+        Properties metadata = new Properties();
+        try (InputStream in = Files.newInputStream(metadataFile(url))) {
+            metadata.load(in);
+        }
+        return metadata;
+    }
+
+    private void store(final String url, final Properties metadata) throws IOException {
+        Path file = metadataFile(url);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            metadata.store(out, null);
+        }
+    }
+}
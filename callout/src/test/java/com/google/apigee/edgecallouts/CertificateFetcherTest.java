@@ -0,0 +1,75 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CertificateFetcherTest {
+
+    private static TestCertificates certificates;
+
+    private LocalCertificateServer server;
+    private CertificateFetcher fetcher;
+    private URL certificateUrl;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new LocalCertificateServer();
+        certificateUrl = new URL(server.serve("echo-api-cert.pem", certificates.pem()));
+        fetcher = new CertificateFetcher(new UrlConnectionCertificateHttpClient(1000, 2000, 64 * 1024),
+                new CertificateChainVerifier(certificates.trustManager(), TestCertificates.ECHO_API_DOMAIN_NAME),
+                0, 20L, 200L, 5000L, new VerifierMetrics(null, null));
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void reusesThePreviousChainWhileTheETagMatches() throws Exception {
+        VerifiedCertificateChain downloaded = fetcher.fetch(certificateUrl, null);
+        assertNotNull(downloaded.etag());
+        assertNotNull(downloaded.lastModified());
+
+        assertSame(downloaded, fetcher.fetch(certificateUrl, downloaded));
+        assertEquals(2, server.requestCount());
+        assertEquals(1, server.notModifiedCount());
+    }
+
+    @Test
+    public void revalidatesWithLastModifiedAlone() throws Exception {
+        VerifiedCertificateChain downloaded = fetcher.fetch(certificateUrl, null);
+        VerifiedCertificateChain previous = downloaded.withValidators(null, downloaded.lastModified());
+
+        assertSame(previous, fetcher.fetch(certificateUrl, previous));
+        assertEquals(1, server.notModifiedCount());
+    }
+
+    @Test
+    public void downloadsTheChainAgainOnceItChanged() throws Exception {
+        VerifiedCertificateChain downloaded = fetcher.fetch(certificateUrl, null);
+        // the same bytes published again, as a new version with new validators
+        server.serve("echo-api-cert.pem", certificates.pem());
+
+        VerifiedCertificateChain refreshed = fetcher.fetch(certificateUrl, downloaded);
+        assertNotSame(downloaded, refreshed);
+        assertEquals(downloaded.fingerprint(), refreshed.fingerprint());
+        assertNotEquals(downloaded.etag(), refreshed.etag());
+        assertEquals(0, server.notModifiedCount());
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.cert.CertificateException;
+
+import org.junit.Test;
+
+public class CertificateUrlPolicyTest {
+
+    @Test
+    public void acceptsAlexaCertificateUrls() throws Exception {
+        assertEquals("https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+                CertificateUrlPolicy.ALEXA.cacheKey("https://s3.amazonaws.com/echo.api/echo-api-cert.pem"));
+        assertEquals("https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+                CertificateUrlPolicy.ALEXA.cacheKey("HTTPS://s3.AmazonAWS.com:443/echo.api/../echo.api/echo-api-cert.pem"));
+    }
+
+    @Test
+    public void keysPercentEncodedPathsOnTheDecodedPath() throws Exception {
+        assertEquals("https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+                CertificateUrlPolicy.ALEXA.cacheKey("https://s3.amazonaws.com/%65cho.api/echo-api-cert.pem"));
+        assertEquals("https://s3.amazonaws.com/echo.api/echo-api-cert.pem",
+                CertificateUrlPolicy.ALEXA.cacheKey("https://s3.amazonaws.com/echo.api/echo-api-%63ert.pem"));
+        assertEquals("https://s3.amazonaws.com/echo.api/echo%20api.pem",
+                CertificateUrlPolicy.ALEXA.cacheKey("https://s3.amazonaws.com/echo.api/echo%20api.pem"));
+    }
+
+    @Test
+    public void rejectsQueriesAndFragments() {
+        assertRejected("https://s3.amazonaws.com/echo.api/echo-api-cert.pem?");
+        assertRejected("https://s3.amazonaws.com/echo.api/echo-api-cert.pem?nocache=1");
+        assertRejected("https://s3.amazonaws.com/echo.api/echo-api-cert.pem#part");
+        assertRejected("https://s3.amazonaws.com/echo.api/echo-api-cert.pem?a=1#part");
+    }
+
+    @Test
+    public void rejectsEncodedDotSegments() {
+        assertRejected("https://s3.amazonaws.com/echo.api/%2e%2e/invalid.path/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/echo.api%2f..%2finvalid.path/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/%2565cho.api/echo-api-cert.pem");
+    }
+
+    @Test
+    public void rejectsOtherUrls() {
+        assertRejected("http://s3.amazonaws.com/echo.api/echo-api-cert.pem");
+        assertRejected("https://notamazon.com/echo.api/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/EcHo.aPi/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/invalid.path/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/echo.api/../invalid.path/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com:563/echo.api/echo-api-cert.pem");
+        assertRejected("https://s3.amazonaws.com/echo.api/echo api.pem");
+    }
+
+    @Test
+    public void keepsNonDefaultPortsInTheCacheKey() throws Exception {
+        CertificateUrlPolicy local = new CertificateUrlPolicy("http", "127.0.0.1", "/echo.api/", false);
+        assertEquals("http://127.0.0.1:8080/echo.api/cert.pem", local.cacheKey("http://127.0.0.1:8080/echo.api/cert.pem"));
+    }
+
+    private static void assertRejected(final String signingCertificateChainUrl) {
+        try {
+            CertificateUrlPolicy.ALEXA.verify(signingCertificateChainUrl);
+            fail(signingCertificateChainUrl);
+        } catch (CertificateException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Many threads verifying at once, to catch races in the shared certificate cache, the replay
+ * guard and the per-request flow variables.
+ */
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = 32;
+    private static final int REQUESTS_PER_THREAD = 50;
+
+    private static TestCertificates certificates;
+
+    private ExecutorService pool;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Before
+    public void startPool() {
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void coldCacheIsFilledByASingleDownload() throws Exception {
+        try (LocalCertificateServer server = new LocalCertificateServer();
+             OfflineVerifier offline = new OfflineVerifier(certificates.trustManager())) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            server.delay(300);
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(4096, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            runConcurrently(() -> {
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    offline.verifier.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body));
+                }
+                return null;
+            });
+
+            assertEquals("concurrent misses share one download", 1, server.requestCount());
+            assertEquals(1, offline.metrics.getCertificateFetchCount());
+        }
+    }
+
+    @Test
+    public void replayedRequestIsAcceptedOnlyOnce() throws Exception {
+        try (LocalCertificateServer server = new LocalCertificateServer();
+             OfflineVerifier offline = new OfflineVerifier(certificates.trustManager(),
+                     VerifierPolicy.REPLAY_PROTECTION, "true")) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            List<byte[]> bodies = new ArrayList<>();
+            List<String> signatures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                byte[] body = SkillRequests.body(1024, timestamp, "amzn1.echo-api.request." + i);
+                bodies.add(body);
+                signatures.add(Base64.getEncoder().encodeToString(certificates.sign(body)));
+            }
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicInteger replayed = new AtomicInteger();
+
+            // every thread sends every request, only one copy of each may get through
+            runConcurrently(() -> {
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    try {
+                        offline.verifier.verify(signatures.get(i), certificateUrl, timestamp,
+                                OfflineVerifier.content(bodies.get(i)));
+                        accepted.incrementAndGet();
+                    } catch (VerificationException e) {
+                        assertEquals(FailureReason.REPLAYED_REQUEST, e.getReason());
+                        replayed.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+
+            assertEquals(REQUESTS_PER_THREAD, accepted.get());
+            assertEquals((THREADS - 1) * REQUESTS_PER_THREAD, replayed.get());
+        }
+    }
+
+    @Test
+    public void calloutKeepsOutcomesApartPerRequest() throws Exception {
+        String certificateUrl = "https://s3.amazonaws.com/echo.api/echo-api-cert-stress.pem";
+        // the test CA is not in the JVM trust store, so the chain goes into the cache as is
+        AlexaVerifierCallout.certificateCache().preload(CertificateUrlPolicy.ALEXA.cacheKey(certificateUrl),
+                new VerifiedCertificateChain(certificates.chain(), CertificateChainVerifier.fingerprint(certificates.chain())));
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("signature-cert-chain-url", "alexa_signature_chain_url");
+        properties.put("request-signature", "alexa_signature_256");
+        properties.put("message-variable-ref", "message");
+        properties.put("request-body-timestamp", "request_body_timestamp");
+        properties.put("request-signature-val-result", "alexa_vallidation_result");
+        AlexaVerifierCallout callout = new AlexaVerifierCallout(properties);
+
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(2048, timestamp);
+        String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+        byte[] tampered = body.clone();
+        tampered[64] ^= 1;
+        String stale = SkillRequests.timestamp(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10));
+
+        long verifiedBefore = AlexaVerifierCallout.metrics().getVerifiedCount();
+        AtomicInteger thread = new AtomicInteger();
+        runConcurrently(() -> {
+            int id = thread.getAndIncrement();
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                int kind = (id + i) % 4;
+                Map<String, Object> variables = new HashMap<>();
+                variables.put("message", FlowStubs.message(kind == 1 ? tampered : body));
+                variables.put("alexa_signature_chain_url", certificateUrl);
+                if (kind != 2) {
+                    variables.put("alexa_signature_256", signature);
+                }
+                variables.put("request_body_timestamp", kind == 3 ? stale : timestamp);
+
+                callout.execute(FlowStubs.messageContext(variables), null);
+
+                Object error = variables.get(AlexaVerifierCallout.CALLOUT_VAR_PREFIX + ".error");
+                switch (kind) {
+                    case 0:
+                        assertEquals(Boolean.TRUE, variables.get("alexa_vallidation_result"));
+                        assertNull(error);
+                        break;
+                    case 1:
+                        assertEquals(FailureReason.SIGNATURE_MISMATCH.code(), error);
+                        break;
+                    case 2:
+                        assertEquals(FailureReason.MISSING_HEADERS.code(), error);
+                        break;
+                    default:
+                        assertEquals(FailureReason.TIMESTAMP_OUT_OF_WINDOW.code(), error);
+                        break;
+                }
+                if (kind != 0) {
+                    assertEquals(Boolean.FALSE, variables.get("alexa_vallidation_result"));
+                }
+            }
+            return null;
+        });
+
+        assertEquals(THREADS * REQUESTS_PER_THREAD / 4,
+                AlexaVerifierCallout.metrics().getVerifiedCount() - verifiedBefore);
+    }
+
+    /**
+     * Starts the task on all threads at once and rethrows the first failure.
+     */
+    private void runConcurrently(final Callable<Void> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+    }
+}
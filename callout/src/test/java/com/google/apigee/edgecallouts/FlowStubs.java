@@ -0,0 +1,65 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.apigee.flow.message.Message;
+import com.apigee.flow.message.MessageContext;
+
+/**
+ * Map backed {@link MessageContext} and byte backed {@link Message} stand-ins. They are dynamic
+ * proxies so that they only depend on the few methods the callout actually calls.
+ */
+final class FlowStubs {
+
+    private FlowStubs() {
+    }
+
+    static MessageContext messageContext(final Map<String, Object> variables) {
+        return (MessageContext) Proxy.newProxyInstance(FlowStubs.class.getClassLoader(),
+                new Class<?>[]{MessageContext.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getVariable":
+                            return variables.get((String) args[0]);
+                        case "setVariable":
+                            variables.put((String) args[0], args[1]);
+                            return Boolean.TRUE;
+                        case "removeVariable":
+                            return variables.remove((String) args[0]) != null;
+                        default:
+                            return defaultValue(method);
+                    }
+                });
+    }
+
+    static Message message(final byte[] body) {
+        return (Message) Proxy.newProxyInstance(FlowStubs.class.getClassLoader(),
+                new Class<?>[]{Message.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getContent":
+                            return new String(body, StandardCharsets.UTF_8);
+                        case "getContentAsStream":
+                            return new ByteArrayInputStream(body);
+                        default:
+                            return defaultValue(method);
+                    }
+                });
+    }
+
+    private static Object defaultValue(final Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type.isPrimitive() && type != void.class) {
+            return 0;
+        }
+        return null;
+    }
+}
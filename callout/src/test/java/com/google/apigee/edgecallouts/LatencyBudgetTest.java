@@ -0,0 +1,118 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Request latency while the certificate server is slow: requests wait for a download no longer
+ * than the fetch wait timeout, and a hanging or trickling server is given up on within the fetch
+ * budget.
+ */
+public class LatencyBudgetTest {
+
+    private static final long SLACK_MS = 750L;
+
+    private static TestCertificates certificates;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Test
+    public void slowDownloadDoesNotHoldRequestsPastTheWaitTimeout() throws Exception {
+        long fetchWaitTimeoutMs = 250L;
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try (LocalCertificateServer server = new LocalCertificateServer();
+             OfflineVerifier offline = new OfflineVerifier(certificates.trustManager(),
+                     VerifierPolicy.CERT_FETCH_WAIT_TIMEOUT_MS, Long.toString(fetchWaitTimeoutMs),
+                     VerifierPolicy.CERT_FETCH_READ_TIMEOUT_MS, "5000")) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            server.delay(1500);
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(1024, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            List<Future<Long>> latencies = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                latencies.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    RequestVerifierTest.assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () ->
+                            offline.verifier.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body)));
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }));
+            }
+            for (Future<Long> latency : latencies) {
+                long elapsedMs = latency.get(10, TimeUnit.SECONDS);
+                assertTrue("waited " + elapsedMs + " ms", elapsedMs < fetchWaitTimeoutMs + SLACK_MS);
+            }
+
+            // the download keeps going in the background and serves later requests
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (offline.metrics.getCacheSize() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            offline.verifier.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body));
+            assertEquals(1, server.requestCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hangingServerIsCutOffByTheFetchBudget() throws Exception {
+        long fetchBudgetMs = 1000L;
+        try (LocalCertificateServer server = new LocalCertificateServer();
+             OfflineVerifier offline = new OfflineVerifier(certificates.trustManager(),
+                     VerifierPolicy.CERT_FETCH_WAIT_TIMEOUT_MS, "10000", VerifierPolicy.CERT_FETCH_READ_TIMEOUT_MS, "300",
+                     VerifierPolicy.CERT_FETCH_TOTAL_BUDGET_MS, Long.toString(fetchBudgetMs))) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            server.delay(5000);
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(1024, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            long start = System.nanoTime();
+            RequestVerifierTest.assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () ->
+                    offline.verifier.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body)));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("waited " + elapsedMs + " ms", elapsedMs < fetchBudgetMs + SLACK_MS);
+            assertEquals(1, offline.metrics.getCertificateFetchFailureCount());
+        }
+    }
+
+    @Test
+    public void tricklingServerIsCutOffByTheFetchBudget() throws Exception {
+        long fetchBudgetMs = 1000L;
+        try (LocalCertificateServer server = new LocalCertificateServer();
+             OfflineVerifier offline = new OfflineVerifier(certificates.trustManager(),
+                     VerifierPolicy.CERT_FETCH_WAIT_TIMEOUT_MS, "10000", VerifierPolicy.CERT_FETCH_READ_TIMEOUT_MS, "300",
+                     VerifierPolicy.CERT_FETCH_TOTAL_BUDGET_MS, Long.toString(fetchBudgetMs))) {
+            String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+            server.trickle(50);
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(1024, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            long start = System.nanoTime();
+            RequestVerifierTest.assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () ->
+                    offline.verifier.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body)));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("waited " + elapsedMs + " ms", elapsedMs < fetchBudgetMs + SLACK_MS);
+            assertEquals(1, offline.metrics.getCertificateFetchFailureCount());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void reportsTheUpperBoundOfTheBucket() {
+        assertEquals(1L, percentileOfOne(0L));
+        assertEquals("below one microsecond", 1L, percentileOfOne(999L));
+        assertEquals(2L, percentileOfOne(1000L));
+        assertEquals(4L, percentileOfOne(2000L));
+        assertEquals(4L, percentileOfOne(3999L));
+        assertEquals(1024L, percentileOfOne(1023000L));
+        assertEquals(2048L, percentileOfOne(1024000L));
+        assertEquals("negative clock differences count as zero", 1L, percentileOfOne(-5000L));
+    }
+
+    @Test
+    public void collectsEverythingSlowInTheLastBucket() {
+        assertEquals(1L << 24, percentileOfOne(((1L << 24) - 1) * 1000L));
+        assertEquals(Long.MAX_VALUE, percentileOfOne((1L << 24) * 1000L));
+        assertEquals(Long.MAX_VALUE, percentileOfOne(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void findsPercentilesByRank() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 900; i++) {
+            histogram.record(100000L);
+        }
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5000000L);
+        }
+        histogram.record(60000000L);
+
+        assertEquals(1000L, histogram.count());
+        assertEquals(128L, histogram.percentileMicros(50));
+        assertEquals(128L, histogram.percentileMicros(90));
+        assertEquals(8192L, histogram.percentileMicros(99));
+        assertEquals(65536L, histogram.percentileMicros(100));
+        assertEquals((900L * 100L + 99L * 5000L + 60000L) / 1000L, histogram.meanMicros());
+    }
+
+    @Test
+    public void reportsZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.count());
+        assertEquals(0L, histogram.meanMicros());
+        assertEquals(0L, histogram.percentileMicros(99));
+    }
+
+    private static long percentileOfOne(final long nanos) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(nanos);
+        return histogram.percentileMicros(50);
+    }
+}
@@ -0,0 +1,171 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded stand-in for the S3 bucket that serves the signing certificate chains, listening on
+ * the loopback interface only.
+ *
+ * Documents are served with an {@code ETag} and a {@code Last-Modified} header and answered
+ * with {@code 304 Not Modified} when a conditional request still matches them. Responses can be
+ * delayed, trickled out a few bytes at a time and preceded by a queue of error status codes, to
+ * exercise the retries, timeouts and single-flight behaviour of the certificate cache.
+ */
+final class LocalCertificateServer implements AutoCloseable {
+
+    static final String PATH_PREFIX = "/echo.api/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger versions = new AtomicInteger();
+    private volatile long delayMs;
+    private volatile long trickleIntervalMs;
+
+    LocalCertificateServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH_PREFIX, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * The policy that accepts URLs of this server, the local equivalent of
+     * {@link CertificateUrlPolicy#ALEXA}.
+     */
+    static CertificateUrlPolicy urlPolicy() {
+        return new CertificateUrlPolicy("http", InetAddress.getLoopbackAddress().getHostAddress(), PATH_PREFIX, false);
+    }
+
+    String serve(final String name, final byte[] body) {
+        int version = versions.incrementAndGet();
+        // every version gets a Last-Modified date of its own, a second apart
+        documents.put(PATH_PREFIX + name, new Document(body, "\"v" + version + "\"",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        ZonedDateTime.of(2022, 8, 5, 18, 38, 0, 0, ZoneOffset.UTC).plusSeconds(version))));
+        return url(name);
+    }
+
+    String url(final String name) {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort()
+                + PATH_PREFIX + name;
+    }
+
+    void delay(final long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Bodies are sent in 16 byte chunks with this pause between them, so that every read returns
+     * well within the read timeout while the whole body takes much longer.
+     */
+    void trickle(final long intervalMs) {
+        this.trickleIntervalMs = intervalMs;
+    }
+
+    /**
+     * The next requests are answered with these status codes, in order, before documents are
+     * served again.
+     */
+    void failNext(final int... statusCodes) {
+        for (int statusCode : statusCodes) {
+            failures.add(statusCode);
+        }
+    }
+
+    int requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Requests answered with {@code 304 Not Modified}.
+     */
+    int notModifiedCount() {
+        return notModified.get();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            Integer failure = failures.poll();
+            Document document = documents.get(exchange.getRequestURI().getPath());
+            if (failure != null) {
+                exchange.sendResponseHeaders(failure, -1);
+            } else if (document == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (document.isNotModified(exchange.getRequestHeaders().getFirst("If-None-Match"),
+                    exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = document.body;
+                exchange.getResponseHeaders().set("ETag", document.etag);
+                exchange.getResponseHeaders().set("Last-Modified", document.lastModified);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    if (trickleIntervalMs > 0) {
+                        for (int offset = 0; offset < body.length; offset += 16) {
+                            out.write(body, offset, Math.min(16, body.length - offset));
+                            out.flush();
+                            Thread.sleep(trickleIntervalMs);
+                        }
+                    } else {
+                        out.write(body);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class Document {
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Document(byte[] body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        // If-None-Match wins over If-Modified-Since, as in RFC 7232
+        boolean isNotModified(final String ifNoneMatch, final String ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                return ifNoneMatch.equals(etag);
+            }
+            return ifModifiedSince != null && ifModifiedSince.equals(lastModified);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.google.apigee.edgecallouts;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * An {@link VerifierPolicy#unshared unshared} policy with an injected trust manager and the URL
+ * policy of a {@link LocalCertificateServer}, so that nothing touches the network or the JVM trust
+ * store, while the verifier is wired exactly like the one in {@link AlexaVerifierCallout}.
+ */
+final class OfflineVerifier implements AutoCloseable {
+
+    static final long TIMESTAMP_TOLERANCE_MS = TimeUnit.SECONDS.toMillis(150);
+
+    private final VerifierPolicy policy;
+    final VerifierMetrics metrics;
+    final RequestVerifier verifier;
+
+    /**
+     * @param overrides names and values of policy properties, in pairs, that replace the defaults
+     *                  below
+     */
+    OfflineVerifier(X509TrustManager trustManager, String... overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(VerifierPolicy.CERT_URL_HOST, InetAddress.getLoopbackAddress().getHostAddress());
+        properties.put(VerifierPolicy.CERT_URL_PATH_PREFIX, LocalCertificateServer.PATH_PREFIX);
+        properties.put(VerifierPolicy.CERT_SUBJECT_ALT_NAME, TestCertificates.ECHO_API_DOMAIN_NAME);
+        properties.put(VerifierPolicy.CERT_FETCH_RETRIES, "3");
+        properties.put(VerifierPolicy.CERT_FETCH_INITIAL_BACKOFF_MS, "20");
+        properties.put(VerifierPolicy.CERT_FETCH_MAX_BACKOFF_MS, "200");
+        properties.put(VerifierPolicy.CERT_FETCH_TOTAL_BUDGET_MS, "5000");
+        properties.put(VerifierPolicy.TIMESTAMP_TOLERANCE_SECONDS,
+                Long.toString(TimeUnit.MILLISECONDS.toSeconds(TIMESTAMP_TOLERANCE_MS)));
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            properties.put(overrides[i], overrides[i + 1]);
+        }
+        policy = VerifierPolicy.unshared(properties, "http", false, trustManager);
+        metrics = policy.metrics();
+        verifier = policy.requestVerifier();
+    }
+
+    /**
+     * The body as {@link RequestVerifier.SignedContent}, fed to the scanner when there is one.
+     */
+    static RequestVerifier.SignedContent content(final byte[] body) {
+        return (publicKey, signature, timestampScanner) -> {
+            if (timestampScanner != null) {
+                timestampScanner.update(body, 0, body.length);
+            }
+            return SignatureVerifier.verify(publicKey, body, signature);
+        };
+    }
+
+    @Override
+    public void close() {
+        policy.close();
+    }
+}
@@ -0,0 +1,90 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReplayGuardTest {
+
+    private static final long WINDOW_MS = 300000L;
+    private static final long NOW = 1700000000000L;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void remembersSignaturesForTheWholeWindow() {
+        ReplayGuard guard = new ReplayGuard(WINDOW_MS, 1000, 4);
+        byte[] signature = signature();
+
+        assertFalse(guard.isReplay(signature, NOW));
+        assertTrue(guard.record(signature, NOW));
+        assertTrue(guard.isReplay(signature, NOW + 1));
+        assertFalse("recorded twice", guard.record(signature, NOW + 1));
+        assertTrue(guard.isReplay(signature, NOW + WINDOW_MS));
+    }
+
+    @Test
+    public void forgetsSignaturesAfterTheWindow() {
+        ReplayGuard guard = new ReplayGuard(WINDOW_MS, 1000, 4);
+        byte[] signature = signature();
+        guard.record(signature, NOW);
+
+        assertFalse(guard.isReplay(signature, NOW + 2 * WINDOW_MS));
+        assertTrue(guard.record(signature, NOW + 2 * WINDOW_MS));
+    }
+
+    @Test
+    public void failsOpenWhenFull() {
+        ReplayGuard guard = new ReplayGuard(WINDOW_MS, 64, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(guard.record(signature(), NOW));
+        }
+        assertTrue(guard.overflowCount() > 0);
+        assertEquals(guard.overflowCount(), new VerifierMetrics(null, guard).getReplayCacheOverflowCount());
+    }
+
+    @Test
+    public void forgetsOnlyTheSignaturesThatOverflowed() {
+        ReplayGuard guard = new ReplayGuard(WINDOW_MS, 32, 1);
+        List<byte[]> remembered = new ArrayList<>();
+        byte[] overflowed = signature();
+        while (guard.record(overflowed, NOW) && guard.overflowCount() == 0) {
+            remembered.add(overflowed);
+            overflowed = signature();
+        }
+        assertEquals(1, guard.overflowCount());
+
+        assertFalse("failed open", guard.isReplay(overflowed, NOW));
+        assertTrue(guard.record(overflowed, NOW));
+        assertEquals(2, guard.overflowCount());
+        for (byte[] signature : remembered) {
+            assertTrue(guard.isReplay(signature, NOW));
+        }
+
+        // the next time slice has room again
+        assertTrue(guard.record(overflowed, NOW + WINDOW_MS / 8));
+        assertTrue(guard.isReplay(overflowed, NOW + WINDOW_MS / 8));
+        assertEquals(2, new VerifierMetrics(null, guard).getReplayCacheOverflowCount());
+    }
+
+    @Test
+    public void ignoresSignaturesTooShortToKey() {
+        ReplayGuard guard = new ReplayGuard(WINDOW_MS, 1000, 4);
+        byte[] signature = new byte[8];
+        assertTrue(guard.record(signature, NOW));
+        assertTrue(guard.record(signature, NOW));
+        assertEquals(0, guard.overflowCount());
+    }
+
+    private byte[] signature() {
+        byte[] signature = new byte[256];
+        random.nextBytes(signature);
+        return signature;
+    }
+}
@@ -0,0 +1,210 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RequestVerifierTest {
+
+    private static TestCertificates certificates;
+
+    private LocalCertificateServer server;
+    private OfflineVerifier offline;
+    private String certificateUrl;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new LocalCertificateServer();
+        certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+        offline = new OfflineVerifier(certificates.trustManager());
+    }
+
+    @After
+    public void stopServer() {
+        offline.close();
+        server.close();
+    }
+
+    @Test
+    public void verifiesSignedRequest() throws Exception {
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(2048, timestamp);
+
+        offline.verifier.verify(sign(body), certificateUrl, timestamp, OfflineVerifier.content(body));
+        offline.verifier.verify(sign(body), certificateUrl, timestamp, OfflineVerifier.content(body));
+
+        assertEquals("second request is served from the cache", 1, server.requestCount());
+        assertEquals(1, offline.metrics.getCacheHitCount());
+    }
+
+    @Test
+    public void readsTimestampFromBody() throws Exception {
+        byte[] body = SkillRequests.body(2048, SkillRequests.timestamp(System.currentTimeMillis()));
+        offline.verifier.verifyWithBodyTimestamp(sign(body), certificateUrl, OfflineVerifier.content(body));
+
+        byte[] stale = SkillRequests.body(2048, SkillRequests.timestamp(System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(5)));
+        assertRejected(FailureReason.TIMESTAMP_OUT_OF_WINDOW, () -> offline.verifier.verifyWithBodyTimestamp(
+                sign(stale), certificateUrl, OfflineVerifier.content(stale)));
+    }
+
+    @Test
+    public void rejectsTamperedBody() throws Exception {
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(2048, timestamp);
+        String signature = sign(body);
+        body[100] ^= 1;
+
+        assertRejected(FailureReason.SIGNATURE_MISMATCH, () -> offline.verifier.verify(signature, certificateUrl,
+                timestamp, OfflineVerifier.content(body)));
+    }
+
+    @Test
+    public void rejectsTimestampsOutsideTheWindow() throws Exception {
+        long now = System.currentTimeMillis();
+        for (long offset : new long[]{-TimeUnit.MINUTES.toMillis(3), TimeUnit.MINUTES.toMillis(3)}) {
+            String timestamp = SkillRequests.timestamp(now + offset);
+            byte[] body = SkillRequests.body(1024, timestamp);
+            assertRejected(FailureReason.TIMESTAMP_OUT_OF_WINDOW, () -> offline.verifier.verify(sign(body),
+                    certificateUrl, timestamp, OfflineVerifier.content(body)));
+        }
+        assertEquals("the timestamp is checked before the certificate is downloaded", 0, server.requestCount());
+    }
+
+    @Test
+    public void rejectsBadHeadersBeforeAnyDownload() throws Exception {
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+        String signature = sign(body);
+
+        assertRejected(FailureReason.MISSING_HEADERS, () -> offline.verifier.verify(null, certificateUrl,
+                timestamp, OfflineVerifier.content(body)));
+        assertRejected(FailureReason.INVALID_SIGNATURE_ENCODING, () -> offline.verifier.verify("not*base64",
+                certificateUrl, timestamp, OfflineVerifier.content(body)));
+        assertRejected(FailureReason.HEADER_TOO_LARGE, () -> offline.verifier.verify(signature,
+                certificateUrl + "?" + new String(new char[2000]).replace('\0', 'x'), timestamp,
+                OfflineVerifier.content(body)));
+        assertRejected(FailureReason.INVALID_CERT_URL, () -> offline.verifier.verify(signature,
+                "https://s3.amazonaws.com/echo.api/echo-api-cert.pem", timestamp, OfflineVerifier.content(body)));
+        assertRejected(FailureReason.INVALID_CERT_URL, () -> offline.verifier.verify(signature,
+                server.url("../elsewhere/echo-api-cert.pem"), timestamp, OfflineVerifier.content(body)));
+        assertEquals(0, server.requestCount());
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        server.failNext(503, 500);
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+
+        offline.verifier.verify(sign(body), certificateUrl, timestamp, OfflineVerifier.content(body));
+
+        assertEquals(3, server.requestCount());
+        assertEquals(2, offline.metrics.getCertificateFetchRetryCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+
+        assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> offline.verifier.verify(sign(body),
+                server.url("missing.pem"), timestamp, OfflineVerifier.content(body)));
+        assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> offline.verifier.verify(sign(body),
+                server.url("missing.pem"), timestamp, OfflineVerifier.content(body)));
+        assertEquals("the failure is remembered, not fetched again", 1, server.requestCount());
+    }
+
+    @Test
+    public void rejectsUntrustedAndMisnamedCertificates() throws Exception {
+        TestCertificates untrusted = TestCertificates.generate();
+        TestCertificates misnamed = TestCertificates.generate("example.com");
+        String untrustedUrl = server.serve("untrusted.pem", untrusted.pem());
+        String misnamedUrl = server.serve("misnamed.pem", misnamed.pem());
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+
+        assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> offline.verifier.verify(
+                Base64.getEncoder().encodeToString(untrusted.sign(body)), untrustedUrl, timestamp,
+                OfflineVerifier.content(body)));
+        try (OfflineVerifier trustingMisnamed = new OfflineVerifier(misnamed.trustManager())) {
+            assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> trustingMisnamed.verifier.verify(
+                    Base64.getEncoder().encodeToString(misnamed.sign(body)), misnamedUrl, timestamp,
+                    OfflineVerifier.content(body)));
+        }
+    }
+
+    @Test
+    public void rejectsReplayedRequests() throws Exception {
+        try (OfflineVerifier guarded = new OfflineVerifier(certificates.trustManager(),
+                VerifierPolicy.REPLAY_PROTECTION, "true", VerifierPolicy.REPLAY_CACHE_MAX_ENTRIES, "1000")) {
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[] body = SkillRequests.body(1024, timestamp, "amzn1.echo-api.request.1");
+            byte[] other = SkillRequests.body(1024, timestamp, "amzn1.echo-api.request.2");
+
+            guarded.verifier.verify(sign(body), certificateUrl, timestamp, OfflineVerifier.content(body));
+            guarded.verifier.verify(sign(other), certificateUrl, timestamp, OfflineVerifier.content(other));
+            assertRejected(FailureReason.REPLAYED_REQUEST, () -> guarded.verifier.verify(sign(body), certificateUrl,
+                    timestamp, OfflineVerifier.content(body)));
+            assertEquals(0, guarded.metrics.getReplayCacheOverflowCount());
+        }
+    }
+
+    @Test
+    public void acceptsReplaysOfRequestsTheFullReplayCacheCouldNotRemember() throws Exception {
+        // one entry per time slice and stripe, i.e. at most 16 of the requests below
+        try (OfflineVerifier guarded = new OfflineVerifier(certificates.trustManager(),
+                VerifierPolicy.REPLAY_PROTECTION, "true", VerifierPolicy.REPLAY_CACHE_MAX_ENTRIES, "128")) {
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+            byte[][] bodies = new byte[40][];
+            for (int i = 0; i < bodies.length; i++) {
+                bodies[i] = SkillRequests.body(1024, timestamp, "amzn1.echo-api.request." + i);
+                guarded.verifier.verify(sign(bodies[i]), certificateUrl, timestamp, OfflineVerifier.content(bodies[i]));
+            }
+            long overflows = guarded.metrics.getReplayCacheOverflowCount();
+            assertTrue(overflows > 0);
+
+            int replaysAccepted = 0;
+            for (byte[] body : bodies) {
+                try {
+                    guarded.verifier.verify(sign(body), certificateUrl, timestamp, OfflineVerifier.content(body));
+                    replaysAccepted++;
+                } catch (VerificationException e) {
+                    assertEquals(FailureReason.REPLAYED_REQUEST, e.getReason());
+                }
+            }
+            assertEquals("only the requests that were not remembered get through again", overflows, replaysAccepted);
+        }
+    }
+
+    private static String sign(final byte[] body) throws Exception {
+        return Base64.getEncoder().encodeToString(certificates.sign(body));
+    }
+
+    interface Verification {
+        void run() throws Exception;
+    }
+
+    static void assertRejected(final FailureReason expected, final Verification verification) throws Exception {
+        try {
+            verification.run();
+            fail("expected " + expected.code());
+        } catch (VerificationException e) {
+            assertEquals(e.getMessage(), expected, e.getReason());
+            assertTrue(e.getMessage() != null);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.google.apigee.edgecallouts;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Builds Alexa custom skill request bodies of a given size.
+ */
+final class SkillRequests {
+
+    private SkillRequests() {
+    }
+
+    static String timestamp(final long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).truncatedTo(ChronoUnit.SECONDS).toString();
+    }
+
+    /**
+     * A request envelope with the timestamp in {@code request.timestamp}, padded with a session
+     * attribute up to roughly {@code size} bytes.
+     */
+    static byte[] body(final int size, final String timestamp) {
+        return body(size, timestamp, "amzn1.echo-api.request.0000");
+    }
+
+    static byte[] body(final int size, final String timestamp, final String requestId) {
+        StringBuilder json = new StringBuilder(size + 256);
+        json.append("{\"version\":\"1.0\",\"session\":{\"new\":false,\"sessionId\":\"amzn1.echo-api.session.0000\",")
+                .append("\"attributes\":{\"padding\":\"");
+        int padding = size - json.length() - 160;
+        for (int i = 0; i < padding; i++) {
+            json.append((char) ('a' + (i % 26)));
+        }
+        json.append("\"}},\"request\":{\"type\":\"IntentRequest\",\"requestId\":\"").append(requestId).append("\",")
+                .append("\"timestamp\":\"").append(timestamp).append("\",\"locale\":\"en-US\"}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
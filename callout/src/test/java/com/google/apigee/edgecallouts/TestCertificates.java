@@ -0,0 +1,145 @@
+package com.google.apigee.edgecallouts;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Throwaway self-signed CA and an Alexa style signing certificate issued by it, with
+ * {@code echo-api.amazon.com} (or another name) as subject alternative name, plus a trust
+ * manager that trusts only that CA.
+ */
+final class TestCertificates {
+
+    static final String ECHO_API_DOMAIN_NAME = "echo-api.amazon.com";
+
+    private final KeyPair signingKeys;
+    private final X509Certificate caCertificate;
+    private final X509Certificate signingCertificate;
+
+    private TestCertificates(KeyPair signingKeys, X509Certificate caCertificate, X509Certificate signingCertificate) {
+        this.signingKeys = signingKeys;
+        this.caCertificate = caCertificate;
+        this.signingCertificate = signingCertificate;
+    }
+
+    static TestCertificates generate() throws GeneralSecurityException {
+        return generate(ECHO_API_DOMAIN_NAME);
+    }
+
+    static TestCertificates generate(final String subjectAlternativeName) throws GeneralSecurityException {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair caKeys = generator.generateKeyPair();
+            KeyPair signingKeys = generator.generateKeyPair();
+
+            long now = System.currentTimeMillis();
+            Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+            Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(365));
+            X500Name caName = new X500Name("CN=Alexa Verifier Test CA");
+
+            X509v3CertificateBuilder ca = new JcaX509v3CertificateBuilder(caName, BigInteger.ONE, notBefore,
+                    notAfter, caName, caKeys.getPublic())
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(true))
+                    .addExtension(Extension.keyUsage, true,
+                            new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            X509Certificate caCertificate = sign(ca, caKeys.getPrivate());
+
+            X509v3CertificateBuilder signing = new JcaX509v3CertificateBuilder(caName, BigInteger.valueOf(2),
+                    notBefore, notAfter, new X500Name("CN=" + subjectAlternativeName), signingKeys.getPublic())
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                    .addExtension(Extension.keyUsage, true,
+                            new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment))
+                    .addExtension(Extension.subjectAlternativeName, false,
+                            new GeneralNames(new GeneralName(GeneralName.dNSName, subjectAlternativeName)));
+            X509Certificate signingCertificate = sign(signing, caKeys.getPrivate());
+
+            return new TestCertificates(signingKeys, caCertificate, signingCertificate);
+        } catch (OperatorCreationException | IOException e) {
+            throw new GeneralSecurityException("Unable to generate test certificates", e);
+        }
+    }
+
+    private static X509Certificate sign(final X509v3CertificateBuilder builder, final PrivateKey issuerKey)
+            throws OperatorCreationException, GeneralSecurityException {
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey)));
+    }
+
+    X509Certificate caCertificate() {
+        return caCertificate;
+    }
+
+    X509Certificate signingCertificate() {
+        return signingCertificate;
+    }
+
+    X509Certificate[] chain() {
+        return new X509Certificate[]{signingCertificate, caCertificate};
+    }
+
+    /**
+     * The chain as served from S3: PEM, signing certificate first.
+     */
+    byte[] pem() throws GeneralSecurityException {
+        StringBuilder pem = new StringBuilder();
+        for (X509Certificate certificate : chain()) {
+            pem.append("-----BEGIN CERTIFICATE-----\n")
+                    .append(Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(certificate.getEncoded()))
+                    .append("\n-----END CERTIFICATE-----\n");
+        }
+        return pem.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    X509TrustManager trustManager() throws GeneralSecurityException {
+        try {
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            trustStore.load(null, null);
+            trustStore.setCertificateEntry("test-ca", caCertificate);
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init(trustStore);
+            for (TrustManager trustManager : factory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) {
+                    return (X509TrustManager) trustManager;
+                }
+            }
+            throw new GeneralSecurityException("No X509TrustManager available");
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Unable to create the test trust store", e);
+        }
+    }
+
+    byte[] sign(final byte[] content) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(signingKeys.getPrivate());
+        signature.update(content);
+        return signature.sign();
+    }
+}
@@ -0,0 +1,105 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.ManagementFactory;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class VerifierMetricsTest {
+
+    private static final String URL = "https://s3.amazonaws.com/echo.api/echo-api-cert.pem";
+    private static final String OBJECT_NAME = VerifierMetrics.OBJECT_NAME + "-test";
+
+    private static VerifiedCertificateChain chain;
+
+    private ScheduledExecutorService executor;
+    private CertificateCache cache;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        TestCertificates certificates = TestCertificates.generate();
+        chain = new VerifiedCertificateChain(certificates.chain(),
+                CertificateChainVerifier.fingerprint(certificates.chain()));
+    }
+
+    @Before
+    public void createCache() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        cache = new CertificateCache((url, previous) -> {
+            throw new CertificateException("offline");
+        }, executor, 1000L, 1000L, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(12),
+                TimeUnit.MINUTES.toMillis(1), 64, 1024L * 1024L);
+    }
+
+    @After
+    public void stopExecutor() {
+        cache.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void exportsTheRequestToFlowVariables() throws Exception {
+        VerifierMetrics metrics = new VerifierMetrics(cache, null);
+        cache.warmUp(URL, null);
+        executor.submit(() -> { }).get();
+
+        Map<String, Object> variables = new HashMap<>();
+        metrics.exportRequest(FlowStubs.messageContext(variables), "alexa", false, 1234567L);
+        assertEquals(Boolean.FALSE, variables.get("alexa.metrics.verified"));
+        assertEquals(1234L, variables.get("alexa.metrics.latency_us"));
+        assertEquals("the warm-up download failed", Boolean.FALSE, variables.get("alexa.metrics.cache.warm"));
+
+        cache.preload(URL, chain);
+        metrics.exportRequest(FlowStubs.messageContext(variables), "alexa", true, 999L);
+        assertEquals(Boolean.TRUE, variables.get("alexa.metrics.verified"));
+        assertEquals(0L, variables.get("alexa.metrics.latency_us"));
+        assertEquals(Boolean.TRUE, variables.get("alexa.metrics.cache.warm"));
+        assertEquals(3, variables.size());
+    }
+
+    @Test
+    public void registersUnderADistinctNameWhenTheNameIsTaken() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        VerifierMetrics first = new VerifierMetrics(cache, null);
+        VerifierMetrics second = new VerifierMetrics(cache, null);
+        // as if registered by the same callout deployed in another proxy
+        String firstName = first.registerMBean(OBJECT_NAME);
+        try {
+            String secondName = second.registerMBean(OBJECT_NAME);
+            try {
+                assertEquals(OBJECT_NAME, firstName);
+                assertEquals(OBJECT_NAME + "-2", secondName);
+
+                first.recordVerified(1000L);
+                assertEquals("the existing bean is left alone", 1L,
+                        server.getAttribute(new ObjectName(OBJECT_NAME), "RequestCount"));
+                assertEquals(0L, server.getAttribute(new ObjectName(secondName), "RequestCount"));
+            } finally {
+                second.unregisterMBean(secondName);
+            }
+        } finally {
+            first.unregisterMBean(firstName);
+        }
+        assertFalse(server.isRegistered(new ObjectName(OBJECT_NAME)));
+    }
+
+    @Test
+    public void skipsRegistrationForInvalidNames() {
+        assertNull(new VerifierMetrics(cache, null).registerMBean("not an object name"));
+    }
+}
@@ -0,0 +1,222 @@
+package com.google.apigee.edgecallouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class VerifierPolicyTest {
+
+    private static TestCertificates certificates;
+
+    private LocalCertificateServer server;
+
+    @BeforeClass
+    public static void generateCertificates() throws Exception {
+        certificates = TestCertificates.generate();
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new LocalCertificateServer();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void policiesAreSharedPerPropertySet() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("policy-name", "shared-test");
+        properties.put("timestamp-tolerance-seconds", "300");
+        properties.put("message-variable-ref", "message");
+        Map<String, String> same = new HashMap<>();
+        same.put("policy-name", " shared-test ");
+        same.put("timestamp-tolerance-seconds", "300");
+        same.put("request-signature", "alexa_signature_256");
+
+        VerifierPolicy policy = VerifierPolicy.forProperties(properties);
+        assertSame("only the policy properties make up the key", policy, VerifierPolicy.forProperties(same));
+        assertSame(policy.requestVerifier(), VerifierPolicy.forProperties(same).requestVerifier());
+        assertNotSame("every policy has its own certificate cache",
+                VerifierPolicy.defaultPolicy().certificateCache(), policy.certificateCache());
+    }
+
+    @Test
+    public void refusesAPolicyNameUsedWithOtherProperties() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("policy-name", "duplicate-test");
+        properties.put("timestamp-tolerance-seconds", "300");
+        Map<String, String> other = new HashMap<>(properties);
+        other.put("timestamp-tolerance-seconds", "60");
+
+        VerifierPolicy policy = VerifierPolicy.forProperties(properties);
+        try {
+            VerifierPolicy.forProperties(other);
+            fail("the second property set would have replaced the metrics bean of the first");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertSame(policy, VerifierPolicy.forProperties(properties));
+    }
+
+    @Test
+    public void namesUnnamedPoliciesAfterTheirProperties() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("timestamp-tolerance-seconds", "301");
+        properties.put("max-signature-length", "4096");
+
+        String objectName = VerifierPolicy.forProperties(properties).objectName();
+        assertEquals("the same properties give the same name in every JVM",
+                VerifierMetrics.OBJECT_NAME + "-policy-" + Integer.toHexString(
+                        "{max-signature-length=4096, timestamp-tolerance-seconds=301}".hashCode()),
+                objectName);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(objectName)));
+        assertEquals(VerifierMetrics.OBJECT_NAME, VerifierPolicy.defaultPolicy().objectName());
+    }
+
+    @Test
+    public void leavesABeanRegisteredByAnotherDeploymentAlone() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        String objectName = VerifierMetrics.OBJECT_NAME + "-deployed-test";
+        // what the callout leaves registered when another proxy, with a classloader and a set of
+        // policies of its own, uses the same policy name
+        VerifierMetrics other = new VerifierMetrics(null, null);
+        assertEquals(objectName, other.registerMBean(objectName));
+        try {
+            VerifierPolicy policy = VerifierPolicy.forProperties(
+                    Collections.singletonMap("policy-name", "deployed-test"));
+            try {
+                assertEquals(objectName + "-2", policy.objectName());
+                assertTrue(mbeanServer.isRegistered(new ObjectName(objectName + "-2")));
+            } finally {
+                policy.close();
+            }
+            assertFalse("closing unregisters the bean", mbeanServer.isRegistered(new ObjectName(objectName + "-2")));
+            assertTrue(mbeanServer.isRegistered(new ObjectName(objectName)));
+        } finally {
+            other.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void certificateUrlAndTimestampWindowComeFromTheProperties() throws Exception {
+        String certificateUrl = server.serve("skills/echo-api-cert.pem", certificates.pem());
+        String unreachableUrl = server.url("skills/missing.pem");
+        Map<String, String> properties = new HashMap<>();
+        properties.put("cert-url-host", InetAddress.getLoopbackAddress().getHostAddress());
+        properties.put("cert-url-path-prefix", LocalCertificateServer.PATH_PREFIX + "skills/");
+        properties.put("cert-fetch-retries", "0");
+        properties.put("timestamp-tolerance-seconds", "600");
+        try (VerifierPolicy policy = VerifierPolicy.unshared(properties, "http", false, certificates.trustManager());
+             VerifierPolicy standardPolicy = VerifierPolicy.unshared(Collections.emptyMap(), "https", true,
+                     certificates.trustManager())) {
+            assertNull("unshared policies are not registered with JMX", policy.objectName());
+            RequestVerifier custom = policy.requestVerifier();
+            RequestVerifier standard = standardPolicy.requestVerifier();
+
+            String timestamp = SkillRequests.timestamp(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5));
+            byte[] body = SkillRequests.body(1024, timestamp);
+            String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+            RequestVerifierTest.assertRejected(FailureReason.INVALID_CERT_URL, () -> standard.verify(signature,
+                    certificateUrl, timestamp, OfflineVerifier.content(body)));
+            RequestVerifierTest.assertRejected(FailureReason.INVALID_CERT_URL, () -> custom.verify(signature,
+                    "https://s3.amazonaws.com/echo.api/echo-api-cert.pem", timestamp, OfflineVerifier.content(body)));
+            RequestVerifierTest.assertRejected(FailureReason.INVALID_CERT_URL, () -> custom.verify(signature,
+                    server.url("echo-api-cert.pem"), timestamp, OfflineVerifier.content(body)));
+            RequestVerifierTest.assertRejected(FailureReason.TIMESTAMP_OUT_OF_WINDOW, () -> standard.verify(signature,
+                    "https://s3.amazonaws.com/echo.api/echo-api-cert.pem", timestamp, OfflineVerifier.content(body)));
+            assertEquals("no request reached the certificate server", 0, server.requestCount());
+
+            custom.verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body));
+            assertEquals(1, server.requestCount());
+
+            server.failNext(503);
+            RequestVerifierTest.assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> custom.verify(signature,
+                    unreachableUrl, timestamp, OfflineVerifier.content(body)));
+            assertEquals("no retries", 2, policy.metrics().getCertificateFetchAttemptCount());
+            assertEquals(2, server.requestCount());
+        }
+    }
+
+    @Test
+    public void certificateDownloadTimeoutsComeFromTheProperties() throws Exception {
+        String certificateUrl = server.serve("skills/echo-api-cert.pem", certificates.pem());
+        server.delay(3000);
+        Map<String, String> properties = new HashMap<>();
+        properties.put("cert-url-host", InetAddress.getLoopbackAddress().getHostAddress());
+        properties.put("cert-url-path-prefix", LocalCertificateServer.PATH_PREFIX);
+        properties.put("cert-fetch-connect-timeout-ms", "200");
+        properties.put("cert-fetch-read-timeout-ms", "5000");
+        properties.put("cert-fetch-total-budget-ms", "600");
+        properties.put("cert-fetch-wait-timeout-ms", "10000");
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+        String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+        try (VerifierPolicy policy = VerifierPolicy.unshared(properties, "http", false, certificates.trustManager())) {
+            long start = System.nanoTime();
+            RequestVerifierTest.assertRejected(FailureReason.CERTIFICATE_UNAVAILABLE, () -> policy.requestVerifier()
+                    .verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body)));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("waited " + elapsedMs + " ms, not the read timeout", elapsedMs < 1500L);
+        }
+    }
+
+    @Test
+    public void prewarmsFromABundledChainWithoutDownloading() throws Exception {
+        String certificateUrl = server.serve("echo-api-cert.pem", certificates.pem());
+        // a chain shipped in the callout's resources, written next to the test classes
+        Path classes = Paths.get(VerifierPolicyTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Path bundled = Files.write(classes.resolve("prewarm-test-echo-api-cert.pem"), certificates.pem());
+        Map<String, String> properties = new HashMap<>();
+        properties.put("cert-url-host", InetAddress.getLoopbackAddress().getHostAddress());
+        properties.put("cert-url-path-prefix", LocalCertificateServer.PATH_PREFIX);
+        properties.put("prewarm-cert-urls", " " + certificateUrl + " = " + bundled.getFileName() + " ");
+        String timestamp = SkillRequests.timestamp(System.currentTimeMillis());
+        byte[] body = SkillRequests.body(1024, timestamp);
+        String signature = Base64.getEncoder().encodeToString(certificates.sign(body));
+
+        try (VerifierPolicy policy = VerifierPolicy.unshared(properties, "http", false, certificates.trustManager())) {
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (!policy.metrics().isCacheWarm() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Map<String, Object> variables = new HashMap<>();
+            policy.metrics().exportRequest(FlowStubs.messageContext(variables), "alexa", false, 0L);
+            assertEquals(Boolean.TRUE, variables.get("alexa.metrics.cache.warm"));
+
+            policy.requestVerifier().verify(signature, certificateUrl, timestamp, OfflineVerifier.content(body));
+            assertEquals("the first request was served from the bundled chain", 0, server.requestCount());
+            assertEquals(0, policy.metrics().getCertificateFetchCount());
+            assertEquals(1, policy.metrics().getCacheHitCount());
+        } finally {
+            Files.delete(bundled);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.google.apigee.edgecallouts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.apigee.flow.message.MessageContext;
+
+public class PropertyTemplateTest {
+
+    private static final Pattern REFERENCE = Pattern.compile("(\\{[a-zA-Z0-9-.]+\\})");
+
+    private final Map<String, Object> variables = new HashMap<>();
+    private final MessageContext messageContext = (MessageContext) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{MessageContext.class},
+            (proxy, method, args) -> "getVariable".equals(method.getName()) ? variables.get((String) args[0]) : null);
+
+    @Test
+    public void resolvesLikeTheRegularExpressionItReplaced() {
+        variables.put("name", "alexa_signature_256");
+        variables.put("a.b-c", "dotted");
+        variables.put("empty", "");
+
+        String[] values = {
+                "",
+                "message",
+                "{name}",
+                "{missing}",
+                "{empty}",
+                "{a.b-c}",
+                "prefix-{name}-suffix",
+                "{name}{a.b-c}",
+                "{missing}-suffix",
+                "{name}-{missing}",
+                "{unclosed",
+                "unopened}",
+                "{name",
+                "{}",
+                "{ }",
+                "{bad name}",
+                "{bad_name}",
+                "{{name}}",
+                "{name}}",
+        };
+        for (String value : values) {
+            assertEquals(value, legacyResolve(value), PropertyTemplate.compile(value).resolve(messageContext));
+        }
+    }
+
+    @Test
+    public void insertsValuesLiterally() {
+        // the regular expression read $ and \ in a value as group references and escapes
+        variables.put("name", "a$1\\b");
+        assertEquals("x-a$1\\b", PropertyTemplate.compile("x-{name}").resolve(messageContext));
+    }
+
+    @Test
+    public void returnsConstantsWithoutCopying() {
+        String value = "alexa_signature_256";
+        assertSame(value, PropertyTemplate.compile(value).resolve(messageContext));
+        assertNull(PropertyTemplate.compile(null).resolve(messageContext));
+    }
+
+    /**
+     * What the callout did before templates: a value that is exactly one reference is the
+     * variable itself, null when unset; any other value has its references replaced, with unset
+     * variables as empty Strings.
+     */
+    private String legacyResolve(final String value) {
+        Matcher whole = REFERENCE.matcher(value);
+        if (whole.matches()) {
+            Object variable = variables.get(value.substring(1, value.length() - 1));
+            return variable instanceof String ? (String) variable : null;
+        }
+        StringBuffer sb = new StringBuffer();
+        Matcher m = REFERENCE.matcher(value);
+        while (m.find()) {
+            String reference = m.group(1);
+            Object variable = variables.get(reference.substring(1, reference.length() - 1));
+            m.appendReplacement(sb, variable instanceof String ? (String) variable : "");
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.apigee.edgecallouts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class RequestTimestampScannerTest {
+
+    @Test
+    public void findsTheRequestTimestamp() {
+        assertScans("2022-08-05T18:38:06Z", "{\"version\":\"1.0\",\"session\":{\"timestamp\":\"no\"},"
+                + "\"request\":{\"type\":\"IntentRequest\",\"timestamp\":\"2022-08-05T18:38:06Z\",\"locale\":\"en-US\"}}");
+    }
+
+    @Test
+    public void ignoresTimestampsElsewhere() {
+        assertScans("2022-08-05T18:38:07Z", "{\"context\":{\"a\":[\"timestamp\",\"x\",{\"request\":{\"timestamp\":\"no\"}}]},"
+                + "\"request\" : { \"intent\":{\"slots\":{\"timestamp\":\"no\"}}, \"timestamp\" : \"2022-08-05T18:38:07Z\" } }");
+        assertScans(null, "[\"request\",{\"timestamp\":\"2022-08-05T18:38:07Z\"}]");
+        assertScans(null, "{\"req\\\"uest\":{\"timestamp\":\"2022-08-05T18:38:07Z\"},\"x\":\"}{\\\"\"}");
+    }
+
+    @Test
+    public void treatsOddValuesAsMissing() {
+        assertScans(null, "{\"request\":{\"timestamp\":12345}}");
+        assertScans(null, "{\"request\":{\"timestamp\":\"2022\\u002d08-05T18:38:06Z\"}}");
+        assertScans(null, "{\"request\":{\"timestamp\":\"" + new String(new char[100]).replace('\0', '9') + "\"}}");
+    }
+
+    @Test
+    public void lastDuplicateWins() {
+        assertScans("2022-08-05T18:38:09Z",
+                "{\"request\":{\"timestamp\":\"2022-08-05T18:38:06Z\",\"timestamp\":\"2022-08-05T18:38:09Z\"}}");
+    }
+
+    @Test
+    public void scansWhatIsReadThroughTheStream() throws Exception {
+        RequestTimestampScanner scanner = new RequestTimestampScanner();
+        byte[] body = "{\"request\":{\"timestamp\":\"2022-08-05T18:38:06Z\"}}".getBytes(StandardCharsets.UTF_8);
+        try (InputStream in = scanner.scanning(new ByteArrayInputStream(body))) {
+            byte[] buffer = new byte[7];
+            in.read();
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        assertEquals("2022-08-05T18:38:06Z", scanner.timestamp());
+    }
+
+    private static void assertScans(final String expected, final String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        // the result must not depend on where the body is split into chunks
+        for (int chunk = 1; chunk <= body.length; chunk++) {
+            RequestTimestampScanner scanner = new RequestTimestampScanner();
+            for (int offset = 0; offset < body.length; offset += chunk) {
+                scanner.update(body, offset, Math.min(chunk, body.length - offset));
+            }
+            assertEquals("chunk size " + chunk, expected, scanner.timestamp());
+        }
+        assertNull(new RequestTimestampScanner().timestamp());
+    }
+}
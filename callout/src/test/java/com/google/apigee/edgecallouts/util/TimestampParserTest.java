@@ -0,0 +1,90 @@
+package com.google.apigee.edgecallouts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+    @Test
+    public void parsesUtcTimestamps() throws Exception {
+        assertParses("2022-08-05T18:38:06Z", Instant.parse("2022-08-05T18:38:06Z").toEpochMilli());
+        assertParses("1970-01-01T00:00:00Z", 0L);
+        assertParses("1969-12-31T23:59:59Z", -1000L);
+        assertParses("2099-12-31T23:59:59Z", Instant.parse("2099-12-31T23:59:59Z").toEpochMilli());
+    }
+
+    @Test
+    public void parsesLeapDays() throws Exception {
+        assertParses("2024-02-29T12:00:00Z", Instant.parse("2024-02-29T12:00:00Z").toEpochMilli());
+        assertParses("2000-02-29T12:00:00Z", Instant.parse("2000-02-29T12:00:00Z").toEpochMilli());
+        assertRejected("2023-02-29T12:00:00Z");
+        assertRejected("1900-02-29T12:00:00Z");
+    }
+
+    @Test
+    public void parsesFractionsOfASecond() throws Exception {
+        long second = Instant.parse("2022-08-05T18:38:06Z").toEpochMilli();
+        assertParses("2022-08-05T18:38:06.5Z", second + 500L);
+        assertParses("2022-08-05T18:38:06.123Z", second + 123L);
+        assertParses("2022-08-05T18:38:06.123999Z", second + 123L);
+        assertRejected("2022-08-05T18:38:06.Z");
+    }
+
+    @Test
+    public void parsesZoneOffsets() throws Exception {
+        long utc = Instant.parse("2022-08-05T13:08:06Z").toEpochMilli();
+        assertParses("2022-08-05T18:38:06+05:30", utc);
+        assertParses("2022-08-05T18:38:06+0530", utc);
+        assertParses("2022-08-05T18:38:06.250+05:30", utc + 250L);
+        assertParses("2022-08-05T18:38:06+05", OffsetDateTime.parse("2022-08-05T18:38:06+05:00").toInstant().toEpochMilli());
+        assertParses("2022-08-05T10:38:06-08:00", Instant.parse("2022-08-05T18:38:06Z").toEpochMilli());
+    }
+
+    @Test
+    public void rejectsFieldsOutOfRange() {
+        assertRejected("2022-13-05T18:38:06Z");
+        assertRejected("2022-00-05T18:38:06Z");
+        assertRejected("2022-04-31T18:38:06Z");
+        assertRejected("2022-08-00T18:38:06Z");
+        assertRejected("2022-08-05T24:00:00Z");
+        assertRejected("2022-08-05T18:60:06Z");
+        assertRejected("2022-08-05T18:38:60Z");
+        assertRejected("2022-08-05T18:38:06+24:00");
+        assertRejected("2022-08-05T18:38:06+05:60");
+    }
+
+    @Test
+    public void rejectsMalformedTimestamps() {
+        assertRejected(null);
+        assertRejected("");
+        assertRejected("2022-08-05");
+        assertRejected("2022-08-05 18:38:06Z");
+        assertRejected("2022/08/05T18:38:06Z");
+        assertRejected("2022-O8-05T18:38:06Z");
+        assertRejected("2022-08-05T18:38:06");
+        assertRejected("2022-08-05T18:38:06ZZ");
+        assertRejected("2022-08-05T18:38:06 Z");
+        assertRejected("2022-08-05T18:38:06+5:30");
+        assertRejected("2022-08-05T18:38:06+05:3");
+        assertRejected("2022-08-05T18:38:06+05:300");
+    }
+
+    private static void assertParses(final String timestamp, final long expectedEpochMillis) throws ParseException {
+        assertEquals(timestamp, expectedEpochMillis, TimestampParser.parseEpochMillis(timestamp));
+    }
+
+    private static void assertRejected(final String timestamp) {
+        try {
+            long parsed = TimestampParser.parseEpochMillis(timestamp);
+            fail(timestamp + " parsed as " + parsed);
+        } catch (ParseException expected) {
+            // expected
+        }
+    }
+}